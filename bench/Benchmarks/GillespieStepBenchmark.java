@@ -0,0 +1,67 @@
+package Benchmarks;
+/*
+ *   @(#)   GillespieStepBenchmark
+ */
+
+import Experimental.GillespieSwitchSimRegular;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+*      GillespieStepBenchmark times one engine step per system on the JVM engines
+*   for several numbers of systems. The reactions counter gives reactions per
+*   second.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GillespieStepBenchmark {
+
+    @Param({"256", "4096", "65536"})
+    public int NumOfSystems;
+
+    @Param({"direct", "next-reaction", "tau-leap"})
+    public String engine;
+
+    private GillespieSwitchSimRegular sim;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        sim = new GillespieSwitchSimRegular();
+        sim.setNumOfSystems(NumOfSystems);
+        sim.setEngine(engine);
+        sim.setTakeData(false);
+        sim.setFindAverage(false);
+        sim.initialize();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        sim.shutdownWorkers();
+    }
+
+    @Benchmark
+    public void regularStep(ReactionCounter counter){
+        counter.reactions += sim.doGillespieStep();
+    }
+}
@@ -0,0 +1,99 @@
+package Benchmarks;
+/*
+ *   @(#)   MeasurementAllocationBenchmark
+ */
+
+import Measurement.BinarySwitchTimeWriter;
+import Measurement.FirstPassageStatistics;
+import Measurement.MultiSwitchTimeSink;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+*      MeasurementAllocationBenchmark measures the bytes allocated per harvest
+*   by the measurement path: filtering the measured times of every system into
+*   a batch and passing it to the statistics and the binary writer. The old
+*   boxed LinkedList path is measured alongside for comparison.
+*
+*   <br>
+*   Uses the HotSpot per thread allocation counter.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class MeasurementAllocationBenchmark {
+    private static int NumOfSystems = 128000;
+    private static int Harvests = 200;
+    private static int Warmup = 50;
+    private static float SwitchFraction = 0.05f;
+
+    public static void main(String[] args) throws IOException {
+        if(args.length > 0){NumOfSystems = Integer.parseInt(args[0]);}
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        Random ran = new Random(1);
+        float[] tMeasured = new float[NumOfSystems];
+        float[] eventTimes = new float[NumOfSystems];
+        int[] eventInfo = new int[NumOfSystems*2];
+
+        File tmp = File.createTempFile("allocbench", ".gsw");
+        tmp.deleteOnExit();
+        FirstPassageStatistics statistics = new FirstPassageStatistics();
+        MultiSwitchTimeSink sink = new MultiSwitchTimeSink();
+        sink.add(statistics);
+        sink.add(new BinarySwitchTimeWriter(tmp.getPath(), new float[1], 1L, NumOfSystems));
+
+        long primitiveBytes = 0;
+        long boxedBytes = 0;
+        double checksum = 0;
+        for(int h = 0;h < Warmup+Harvests;h++){
+            for(int i = 0;i < NumOfSystems;i++){
+                tMeasured[i] = (ran.nextFloat() < SwitchFraction) ? 1.0f+ran.nextFloat()*100 : 0.0f;
+            }
+
+            long before = mx.getThreadAllocatedBytes(tid);
+            int nEvents = 0;
+            for(int i = 0;i < NumOfSystems;i++){
+                if(tMeasured[i] > 0){
+                    eventTimes[nEvents] = tMeasured[i];
+                    eventInfo[nEvents*2] = i;
+                    eventInfo[nEvents*2+1] = -1;
+                    nEvents++;
+                }
+            }
+            sink.addEvents(eventTimes, eventInfo, nEvents);
+            long mid = mx.getThreadAllocatedBytes(tid);
+
+            // previous path: box into a list then remove one by one
+            LinkedList<Double> data = new LinkedList<Double>();
+            for(int i = 0;i < NumOfSystems;i++){
+                if(tMeasured[i] > 0){
+                    data.push(((double)tMeasured[i]));
+                }
+            }
+            int size = data.size();
+            for(int i = 0;i < size;i++){
+                checksum += data.remove();
+            }
+            long after = mx.getThreadAllocatedBytes(tid);
+
+            if(h >= Warmup){
+                primitiveBytes += mid-before;
+                boxedBytes += after-mid;
+            }
+        }
+        sink.close();
+
+        System.out.println("Systems per harvest        : "+NumOfSystems);
+        System.out.println("Primitive bytes / harvest  : "+(primitiveBytes/Harvests));
+        System.out.println("Boxed list bytes / harvest : "+(boxedBytes/Harvests));
+        System.out.println(statistics.report()+"  ("+checksum+")");
+    }
+}
@@ -0,0 +1,117 @@
+package Benchmarks;
+/*
+ *   @(#)   OpenCLHandlerBenchmark
+ */
+
+import GPUBackend.OpenCLHandler;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+*      OpenCLHandlerBenchmark times the blocking host transfers of
+*   OpenCLHandler: full and prefix reads, writes and the old copy out through
+*   getIntBufferAsArray.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpenCLHandlerBenchmark {
+    private static final String BUFFER_NAME = "bench_buffers";
+
+    @Param({"1024", "131072"})
+    public int Size;
+
+    private OpenCLHandler clHandler;
+    private int[] ints;
+    private float[] floats;
+
+    /**
+    *       requirePlatform fails the benchmark setup if no OpenCL device of the
+    *   given type is installed.
+    *
+    * @param deviceType - "CPU" or "GPU"
+    */
+    public static void requirePlatform(String deviceType){
+        int nDevices;
+        try {
+            nDevices = OpenCLHandler.countDevices(deviceType);
+        } catch (Throwable e) {
+            nDevices = 0;
+        }
+        if(nDevices == 0){
+            throw new IllegalStateException("No "+deviceType+" OpenCL platform, skipping.");
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup(){
+        requirePlatform("CPU");
+        clHandler = new OpenCLHandler();
+        clHandler.initializeOpenCL("CPU");
+        clHandler.setDeviceResident(true);
+        clHandler.createIntBuffer(BUFFER_NAME, 0, Size, 1, 0, true);
+        clHandler.createFloatBuffer(BUFFER_NAME, 0, Size, 1.0f, 0, true);
+        ints = new int[Size];
+        floats = new float[Size];
+        clHandler.writeIntBuffer(BUFFER_NAME, 0, ints);
+        clHandler.writeFloatBuffer(BUFFER_NAME, 0, floats);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        clHandler.closeOpenCL();
+    }
+
+    @Benchmark
+    public int[] readIntFull(){
+        clHandler.readIntBuffer(BUFFER_NAME, 0, ints, Size);
+        return ints;
+    }
+
+    @Benchmark
+    public int[] readIntPrefix(){
+        clHandler.readIntBuffer(BUFFER_NAME, 0, ints, Size/16);
+        return ints;
+    }
+
+    @Benchmark
+    public float[] readFloatFull(){
+        clHandler.readFloatBuffer(BUFFER_NAME, 0, floats, Size);
+        return floats;
+    }
+
+    @Benchmark
+    public void writeInt(){
+        clHandler.writeIntBuffer(BUFFER_NAME, 0, ints);
+    }
+
+    @Benchmark
+    public void writeFloat(){
+        clHandler.writeFloatBuffer(BUFFER_NAME, 0, floats);
+    }
+
+    @Benchmark
+    public int[] getIntBufferAsArray(){
+        return clHandler.getIntBufferAsArray(BUFFER_NAME, 0, Size, false);
+    }
+}
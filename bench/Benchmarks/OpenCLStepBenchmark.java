@@ -0,0 +1,76 @@
+package Benchmarks;
+/*
+ *   @(#)   OpenCLStepBenchmark
+ */
+
+import Experimental.GillespieSwitchSim;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+*      OpenCLStepBenchmark times the OpenCL step on a CPU device such as POCL.
+*   Steps are enqueued as in a run, one in flight, and the device is drained at
+*   the end of every iteration so queued work is not left uncounted. Skipped
+*   with an error when no CPU OpenCL platform is installed.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class OpenCLStepBenchmark {
+
+    @Param({"4096", "65536"})
+    public int NumOfSystems;
+
+    @Param({"1", "32"})
+    public int ReactionsPerLaunch;
+
+    private GillespieSwitchSim sim;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        OpenCLHandlerBenchmark.requirePlatform("CPU");
+        sim = new GillespieSwitchSim();
+        sim.setDeviceType("CPU");
+        sim.setNumOfSystems(NumOfSystems);
+        sim.setReactionsPerLaunch(ReactionsPerLaunch);
+        sim.setTakeData(false);
+        sim.setFindAverage(false);
+        sim.initialize();
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain(){
+        sim.waitForSteps();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        sim.finishSimulation();
+    }
+
+    @Benchmark
+    public void openCLStep(ReactionCounter counter){
+        sim.doOneStep();
+        counter.reactions += ((long)NumOfSystems)*ReactionsPerLaunch;
+    }
+}
@@ -0,0 +1,30 @@
+package Benchmarks;
+/*
+ *   @(#)   ReactionCounter
+ */
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+*      ReactionCounter counts the reactions done by a benchmark so JMH reports
+*   them as a throughput next to the invocation rate.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ReactionCounter {
+    public long reactions;
+
+    @Setup(Level.Iteration)
+    public void reset(){
+        reactions = 0;
+    }
+}
@@ -0,0 +1,107 @@
+package Benchmarks;
+/*
+ *   @(#)   SwitchTimeSinkBenchmark
+ */
+
+import Measurement.BinarySwitchTimeWriter;
+import Measurement.FirstPassageStatistics;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+*      SwitchTimeSinkBenchmark times writing one harvest of switch events with
+*   the binary writer, the running statistics and the text format used by
+*   saveData. The reactions counter counts events here, giving events per second.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SwitchTimeSinkBenchmark {
+
+    @Param({"1000", "100000"})
+    public int EventsPerHarvest;
+
+    private float[] times;
+    private int[] info;
+    private File binaryFile;
+    private File textFile;
+    private BinarySwitchTimeWriter binaryWriter;
+    private FirstPassageStatistics statistics;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException{
+        Random ran = new Random(1);
+        times = new float[EventsPerHarvest];
+        info = new int[EventsPerHarvest*2];
+        for(int i = 0;i < EventsPerHarvest;i++){
+            times[i] = (float)(-Math.log(ran.nextDouble())*50);
+            info[i*2] = i;
+            info[i*2+1] = ran.nextInt(10000);
+        }
+        statistics = new FirstPassageStatistics();
+    }
+
+    @Setup(Level.Iteration)
+    public void openFiles() throws IOException{
+        binaryFile = File.createTempFile("sinkbench", ".gsw");
+        textFile = File.createTempFile("sinkbench", ".txt");
+        binaryWriter = new BinarySwitchTimeWriter(binaryFile.getPath(), new float[10], 1L, EventsPerHarvest);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeFiles(){
+        binaryWriter.close();
+        binaryFile.delete();
+        textFile.delete();
+    }
+
+    @Benchmark
+    public void binaryWriter(ReactionCounter counter){
+        binaryWriter.addEvents(times, info, EventsPerHarvest);
+        counter.reactions += EventsPerHarvest;
+    }
+
+    @Benchmark
+    public void statistics(ReactionCounter counter){
+        statistics.addEvents(times, info, EventsPerHarvest);
+        counter.reactions += EventsPerHarvest;
+    }
+
+    @Benchmark
+    public void textWriter(ReactionCounter counter) throws IOException{
+        // same format as saveData
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(textFile, true)));
+        for(int i = 0;i < EventsPerHarvest;i++){
+            out.println(times[i]);
+        }
+        out.println();
+        out.close();
+        counter.reactions += EventsPerHarvest;
+    }
+}
@@ -0,0 +1,102 @@
+package Engines;
+/*
+ *   @(#)   DirectMethodEngine
+ */
+
+import Models.ReactionNetwork;
+import java.util.Random;
+
+/**
+*      DirectMethodEngine is Gillespie's direct method: every step recomputes all
+*   propensities, draws the waiting time from their sum and picks the reaction
+*   in proportion to its propensity.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class DirectMethodEngine implements StochasticEngine {
+    private ReactionNetwork network;
+    private int nSpecies;
+    private int nRxn;
+    private int[] state;
+    private float[] time;
+    private float[] tMeasured;
+    // propensity scratch, one per thread stepping a range
+    private ThreadLocal<double[]> props;
+
+    /**
+    *       DirectMethodEngine creates the engine over the simulation arrays.
+    *
+    * @param net - network to simulate
+    * @param counts - species counts, interleaved per system
+    * @param times - time of every system
+    * @param measured - switch time of every system, set on a switch
+    */
+    public DirectMethodEngine(ReactionNetwork net, int[] counts, float[] times, float[] measured){
+        network = net;
+        nSpecies = net.getNumSpecies();
+        nRxn = net.getNumReactions();
+        state = counts;
+        time = times;
+        tMeasured = measured;
+        props = new ThreadLocal<double[]>(){
+            @Override
+            protected double[] initialValue(){
+                return new double[nRxn];
+            }
+        };
+    }
+
+    /**
+    *       initialize does nothing, the direct method keeps no state.
+    */
+    @Override
+    public void initialize(Random ran){
+    }
+
+    @Override
+    public long step(int start, int end, Random ran){
+        long fired = 0;
+        double[] a = props.get();
+        for(int currSys = start;currSys < end;currSys++){
+            int offset = currSys*nSpecies;
+            double rCurr = network.propensities(state, offset, a);
+            if(rCurr <= 0){continue;}
+
+            // update time, uniform in (0,1]
+            time[currSys] = (float) (time[currSys]-Math.log(1.0-ran.nextDouble())/rCurr);
+
+            // Determine process to update, the last one able to fire takes
+            // rounding so no count goes below 0
+            double u = ran.nextDouble()*rCurr;
+            int r = nRxn-1;
+            while(r > 0 && a[r] <= 0){r--;}
+            int last = r;
+            double cumul = 0;
+            for(int j = 0;j < last;j++){
+                cumul += a[j];
+                if(u < cumul){
+                    r = j;
+                    break;
+                }
+            }
+            network.fire(r, state, offset);
+            fired++;
+
+            // Determine if transitioned
+            if(network.hasSwitched(state, offset)){
+                tMeasured[currSys] = time[currSys];
+                network.reset(state, offset);
+                time[currSys] = 0.0f;
+            }
+        }
+        return fired;
+    }
+
+    @Override
+    public String getName(){
+        return "direct";
+    }
+}
@@ -0,0 +1,121 @@
+package Engines;
+/*
+ *   @(#)   IndexedMinHeap
+ */
+
+/**
+*      IndexedMinHeap is a binary min heap over a fixed set of items 0..n-1
+*   keyed by a double. The position of every item in the heap is tracked so the
+*   key of any item can be changed in O(log n) and the minimum read in O(1).
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class IndexedMinHeap {
+    private double[] key;
+    // heap[i] is the item at node i, pos[item] is the node of the item
+    private int[] heap;
+    private int[] pos;
+
+    /**
+    *       IndexedMinHeap creates a heap of n items, all with infinite key.
+    *
+    * @param n - number of items
+    */
+    public IndexedMinHeap(int n){
+        key = new double[n];
+        heap = new int[n];
+        pos = new int[n];
+        for(int i = 0;i < n;i++){
+            key[i] = Double.POSITIVE_INFINITY;
+            heap[i] = i;
+            pos[i] = i;
+        }
+    }
+
+    public int size(){return heap.length;}
+    public double getKey(int item){return key[item];}
+
+    /**
+    *       peek gives the item with the smallest key.
+    */
+    public int peek(){
+        return heap[0];
+    }
+
+    /**
+    *       peekKey gives the smallest key.
+    */
+    public double peekKey(){
+        return key[heap[0]];
+    }
+
+    /**
+    *       setKey sets the key of an item without restoring the heap, call
+    *   build after setting many keys.
+    *
+    * @param item - item index
+    * @param k - new key
+    */
+    public void setKey(int item, double k){
+        key[item] = k;
+    }
+
+    /**
+    *       build restores the heap order after setKey, in O(n).
+    */
+    public void build(){
+        for(int i = heap.length/2-1;i >= 0;i--){
+            siftDown(i);
+        }
+    }
+
+    /**
+    *       update changes the key of an item and restores the heap order.
+    *
+    * @param item - item index
+    * @param k - new key
+    */
+    public void update(int item, double k){
+        double old = key[item];
+        key[item] = k;
+        if(k < old){
+            siftUp(pos[item]);
+        }else if(k > old){
+            siftDown(pos[item]);
+        }
+    }
+
+    private void siftUp(int i){
+        int item = heap[i];
+        double k = key[item];
+        while(i > 0){
+            int parent = (i-1) >> 1;
+            if(key[heap[parent]] <= k){break;}
+            heap[i] = heap[parent];
+            pos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = item;
+        pos[item] = i;
+    }
+
+    private void siftDown(int i){
+        int n = heap.length;
+        int item = heap[i];
+        double k = key[item];
+        while(true){
+            int child = 2*i+1;
+            if(child >= n){break;}
+            if(child+1 < n && key[heap[child+1]] < key[heap[child]]){child++;}
+            if(key[heap[child]] >= k){break;}
+            heap[i] = heap[child];
+            pos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = item;
+        pos[item] = i;
+    }
+}
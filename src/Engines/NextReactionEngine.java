@@ -0,0 +1,181 @@
+package Engines;
+/*
+ *   @(#)   NextReactionEngine
+ */
+
+import Models.ReactionNetwork;
+import java.util.Random;
+
+/**
+*      NextReactionEngine is the Gibson-Bruck next reaction method. Every system
+*   keeps the propensity and the absolute putative firing time of each reaction
+*   in an IndexedMinHeap. A step fires the reaction on top of the heap and only
+*   recomputes the propensities of its dependents in the reaction dependency
+*   graph. Dependents keep their firing time rescaled by a_old/a_new so a step
+*   needs a single new random number.
+*
+*   <br>
+*   Best suited to networks with many reactions and sparse dependencies, for
+*   the four reaction toggle switch the direct method is as fast.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class NextReactionEngine implements StochasticEngine {
+    private ReactionNetwork network;
+    private int nSpecies;
+    private int nRxn;
+    private int[] state;
+    private float[] time;
+    private float[] tMeasured;
+    private int[][] dependents;
+    // per system propensities and firing times, the clock kept in double
+    private double[] props;
+    private double[] clock;
+    private IndexedMinHeap[] queue;
+
+    /**
+    *       NextReactionEngine creates the engine over the simulation arrays.
+    *
+    * @param net - network to simulate
+    * @param counts - species counts, interleaved per system
+    * @param times - time of every system
+    * @param measured - switch time of every system, set on a switch
+    */
+    public NextReactionEngine(ReactionNetwork net, int[] counts, float[] times, float[] measured){
+        network = net;
+        nSpecies = net.getNumSpecies();
+        nRxn = net.getNumReactions();
+        state = counts;
+        time = times;
+        tMeasured = measured;
+        dependents = net.getDependencyGraph();
+        props = new double[times.length*nRxn];
+        clock = new double[times.length];
+        queue = new IndexedMinHeap[times.length];
+        for(int i = 0;i < times.length;i++){
+            queue[i] = new IndexedMinHeap(nRxn);
+        }
+    }
+
+    /**
+    *       prime draws fresh firing times for every reaction of a system.
+    *
+    * @param sys - system index
+    * @param ran - random number stream
+    */
+    private void prime(int sys, Random ran){
+        int offset = sys*nSpecies;
+        IndexedMinHeap heap = queue[sys];
+        clock[sys] = time[sys];
+        for(int r = 0;r < nRxn;r++){
+            double a = network.getReaction(r).propensity(state, offset);
+            props[sys*nRxn+r] = a;
+            heap.setKey(r, nextTime(clock[sys], a, ran));
+        }
+        heap.build();
+    }
+
+    private static double nextTime(double t, double a, Random ran){
+        // uniform in (0,1]
+        return (a > 0) ? t-Math.log(1.0-ran.nextDouble())/a : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+    *       initialize draws the firing times of every system.
+    */
+    @Override
+    public void initialize(Random ran){
+        for(int i = 0;i < time.length;i++){prime(i, ran);}
+    }
+
+    @Override
+    public long step(int start, int end, Random ran){
+        long fired = 0;
+        for(int currSys = start;currSys < end;currSys++){
+            IndexedMinHeap heap = queue[currSys];
+            int r = heap.peek();
+            double t = heap.peekKey();
+            if(Double.isInfinite(t)){continue;}
+
+            int offset = currSys*nSpecies;
+            int base = currSys*nRxn;
+            clock[currSys] = t;
+            time[currSys] = (float) t;
+            network.fire(r, state, offset);
+            fired++;
+
+            // Determine if transitioned, a restart redraws every reaction
+            if(network.hasSwitched(state, offset)){
+                tMeasured[currSys] = time[currSys];
+                network.reset(state, offset);
+                time[currSys] = 0.0f;
+                prime(currSys, ran);
+                continue;
+            }
+
+            int[] dep = dependents[r];
+            for(int i = 0;i < dep.length;i++){
+                int j = dep[i];
+                double aOld = props[base+j];
+                double aNew = network.getReaction(j).propensity(state, offset);
+                props[base+j] = aNew;
+                double tj;
+                if(j == r || aOld <= 0){
+                    tj = nextTime(t, aNew, ran);
+                }else if(aNew > 0){
+                    tj = t+(aOld/aNew)*(heap.getKey(j)-t);
+                }else{
+                    tj = Double.POSITIVE_INFINITY;
+                }
+                heap.update(j, tj);
+            }
+        }
+        return fired;
+    }
+
+    /**
+    *       getFiringTimes copies the putative firing time of every reaction of
+    *   every system, reaction fastest. With the counts and times this is the
+    *   whole state of the engine, the propensities follow from the counts.
+    *
+    * @param dst - systems times reactions values
+    */
+    public void getFiringTimes(double[] dst){
+        for(int i = 0;i < queue.length;i++){
+            for(int r = 0;r < nRxn;r++){dst[i*nRxn+r] = queue[i].getKey(r);}
+        }
+    }
+
+    /**
+    *       setFiringTimes restores firing times saved by getFiringTimes in 
+    *   place of those drawn by initialize, for a resumed run.
+    *
+    * @param src - systems times reactions values
+    */
+    public void setFiringTimes(double[] src){
+        if(src.length != queue.length*nRxn){
+            throw new IllegalArgumentException("Expected "+queue.length*nRxn+" firing times, got "+src.length);
+        }
+        for(int i = 0;i < queue.length;i++){
+            int offset = i*nSpecies;
+            clock[i] = time[i];
+            for(int r = 0;r < nRxn;r++){
+                props[i*nRxn+r] = network.getReaction(r).propensity(state, offset);
+                queue[i].setKey(r, src[i*nRxn+r]);
+            }
+            queue[i].build();
+        }
+    }
+
+    public int getNumFiringTimes(){
+        return queue.length*nRxn;
+    }
+
+    @Override
+    public String getName(){
+        return "next-reaction";
+    }
+}
@@ -0,0 +1,76 @@
+package Engines;
+/*
+ *   @(#)   PoissonSampler
+ */
+
+import java.util.Random;
+
+/**
+*      PoissonSampler draws Poisson distributed counts. Small means use the
+*   product of uniforms, larger means the PTRS transformed rejection method of
+*   Hoermann (1993) so the cost does not grow with the mean.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class PoissonSampler {
+    private static final double SMALL_MEAN = 10.0;
+    private static final double[] LOG_FACTORIAL = new double[16];
+
+    static {
+        for(int k = 1;k < LOG_FACTORIAL.length;k++){
+            LOG_FACTORIAL[k] = LOG_FACTORIAL[k-1]+Math.log(k);
+        }
+    }
+
+    /**
+    *       sample draws a Poisson count.
+    *
+    * @param ran - random number stream
+    * @param mean - mean of the distribution
+    */
+    public static long sample(Random ran, double mean){
+        if(mean <= 0){return 0;}
+        if(mean < SMALL_MEAN){
+            double limit = Math.exp(-mean);
+            double prod = ran.nextDouble();
+            long k = 0;
+            while(prod > limit){
+                k++;
+                prod *= ran.nextDouble();
+            }
+            return k;
+        }
+
+        double slam = Math.sqrt(mean);
+        double loglam = Math.log(mean);
+        double b = 0.931+2.53*slam;
+        double a = -0.059+0.02483*b;
+        double invalpha = 1.1239+1.1328/(b-3.4);
+        double vr = 0.9277-3.6224/(b-2);
+        while(true){
+            double u = ran.nextDouble()-0.5;
+            double v = ran.nextDouble();
+            double us = 0.5-Math.abs(u);
+            long k = (long) Math.floor((2*a/us+b)*u+mean+0.43);
+            if(us >= 0.07 && v <= vr){return k;}
+            if(k < 0 || (us < 0.013 && v > us)){continue;}
+            if(Math.log(v)+Math.log(invalpha)-Math.log(a/(us*us)+b)
+                    <= -mean+k*loglam-logFactorial(k)){
+                return k;
+            }
+        }
+    }
+
+    /**
+    *       logFactorial gives log(k!), from Stirling's series past the table.
+    */
+    static double logFactorial(long k){
+        if(k < LOG_FACTORIAL.length){return LOG_FACTORIAL[(int)k];}
+        double x = k+1;
+        return (x-0.5)*Math.log(x)-x+0.5*Math.log(2*Math.PI)
+                +1.0/(12*x)-1.0/(360*x*x*x);
+    }
+}
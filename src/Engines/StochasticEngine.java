@@ -0,0 +1,47 @@
+package Engines;
+/*
+ *   @(#)   StochasticEngine
+ */
+
+import java.util.Random;
+
+/**
+*      StochasticEngine advances independent copies of a ReactionNetwork held
+*   in arrays owned by the simulation: interleaved species counts, the time of
+*   every system and the measured switch times. A system that meets the first
+*   passage condition writes its time to the measured times and restarts.
+*
+*   <br>
+*   Ranges of systems can be stepped from different threads as long as the
+*   ranges do not overlap.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public interface StochasticEngine {
+
+    /**
+    *       initialize prepares the engine once the systems hold their initial
+    *   state, before any step.
+    *
+    * @param ran - random number stream
+    */
+    public void initialize(Random ran);
+
+    /**
+    *       step advances every system in [start,end) by one step of the engine.
+    *
+    * @param start - first system to update
+    * @param end - one past the last system to update
+    * @param ran - random number stream for this range of systems
+    * @return reactions fired
+    */
+    public long step(int start, int end, Random ran);
+
+    /**
+    *       getName gives the name of the engine for output.
+    */
+    public String getName();
+}
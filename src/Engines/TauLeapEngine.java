@@ -0,0 +1,344 @@
+package Engines;
+/*
+ *   @(#)   TauLeapEngine
+ */
+
+import Models.RateLaw;
+import Models.Reaction;
+import Models.ReactionNetwork;
+import java.util.Random;
+
+/**
+*      TauLeapEngine is adaptive tau-leaping with the step size selection of
+*   Cao, Gillespie and Petzold (2006). A leap fires a Poisson number of every
+*   non critical reaction so that no propensity changes by more than a fraction
+*   epsilon. Reactions that could exhaust a reactant within NUM_CRITICAL
+*   firings are critical and fire at most once per leap. When the leap is
+*   shorter than SSA_FACTOR exact steps, as at low copy numbers, the system
+*   takes an exact direct method step instead.
+*
+*   <br>
+*   Hill modifiers are not reactants, they count with order n, the largest
+*   relative change of a Hill term for a relative change of the modifier.
+*   <br>
+*   A leap is also kept short of the switch threshold: the rise of the switch
+*   species, its mean plus SWITCH_SIGMAS standard deviations, has to stay
+*   below it, and a leap that crosses it anyway is rejected and halved. Close
+*   to the threshold this leaves only exact steps, so a switch is seen at its
+*   time instead of at the end of a leap. EngineComparison measures the error
+*   against the exact engines.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class TauLeapEngine implements StochasticEngine {
+    public static final int NUM_CRITICAL = 10;
+    public static final double SSA_FACTOR = 10.0;
+    public static final int MAX_HALVINGS = 32;
+    public static final double SWITCH_SIGMAS = 3.0;
+    private ReactionNetwork network;
+    private int nSpecies;
+    private int nRxn;
+    private int[] state;
+    private float[] time;
+    private float[] tMeasured;
+    private double epsilon = 0.15;
+    private int[][] nu;
+    // order and coefficient of the highest order reaction of every species
+    private int[] highestOrder;
+    private int[] highestCoeff;
+    private double[] modifierOrder;
+    private boolean[] inRates;
+    private ThreadLocal<Scratch> scratch;
+
+    /**
+    *       Scratch holds the per thread work arrays of a leap.
+    */
+    private static class Scratch {
+        double[] a;
+        long[] k;
+        boolean[] critical;
+        long[] delta;
+
+        Scratch(int nRxn, int nSpecies){
+            a = new double[nRxn];
+            k = new long[nRxn];
+            critical = new boolean[nRxn];
+            delta = new long[nSpecies];
+        }
+    }
+
+    /**
+    *       TauLeapEngine creates the engine over the simulation arrays.
+    *
+    * @param net - network to simulate
+    * @param counts - species counts, interleaved per system
+    * @param times - time of every system
+    * @param measured - switch time of every system, set on a switch
+    */
+    public TauLeapEngine(ReactionNetwork net, int[] counts, float[] times, float[] measured){
+        network = net;
+        nSpecies = net.getNumSpecies();
+        nRxn = net.getNumReactions();
+        state = counts;
+        time = times;
+        tMeasured = measured;
+        nu = net.getStoichiometry();
+
+        highestOrder = new int[nSpecies];
+        highestCoeff = new int[nSpecies];
+        modifierOrder = new double[nSpecies];
+        inRates = new boolean[nSpecies];
+        for(int r = 0;r < nRxn;r++){
+            Reaction rx = net.getReaction(r);
+            int order = 0;
+            for(int i = 0;i < rx.getNumReactants();i++){order += rx.getReactantCoeff(i);}
+            for(int i = 0;i < rx.getNumReactants();i++){
+                int s = rx.getReactantSpecies(i);
+                int c = rx.getReactantCoeff(i);
+                inRates[s] = true;
+                if(order > highestOrder[s] || (order == highestOrder[s] && c > highestCoeff[s])){
+                    highestOrder[s] = order;
+                    highestCoeff[s] = c;
+                }
+            }
+            if(rx.getModifier() >= 0 && rx.getRateLaw() != RateLaw.MASS_ACTION){
+                int m = rx.getModifier();
+                inRates[m] = true;
+                modifierOrder[m] = Math.max(modifierOrder[m], Math.abs(rx.getHillN()));
+            }
+        }
+
+        scratch = new ThreadLocal<Scratch>(){
+            @Override
+            protected Scratch initialValue(){
+                return new Scratch(nRxn, nSpecies);
+            }
+        };
+    }
+
+    /**
+    *       setEpsilon sets the largest relative change of a propensity in one
+    *   leap, smaller is more accurate and slower.
+    *
+    * @param eps - error control parameter
+    */
+    public void setEpsilon(double eps){
+        epsilon = eps;
+    }
+
+    public double getEpsilon(){
+        return epsilon;
+    }
+
+    /**
+    *       initialize does nothing, leaps keep no state between steps.
+    */
+    @Override
+    public void initialize(Random ran){
+    }
+
+    @Override
+    public long step(int start, int end, Random ran){
+        Scratch w = scratch.get();
+        long fired = 0;
+        for(int currSys = start;currSys < end;currSys++){
+            fired += leap(currSys, ran, w);
+
+            // Determine if transitioned
+            int offset = currSys*nSpecies;
+            if(network.hasSwitched(state, offset)){
+                tMeasured[currSys] = time[currSys];
+                network.reset(state, offset);
+                time[currSys] = 0.0f;
+            }
+        }
+        return fired;
+    }
+
+    /**
+    *       leap advances one system by a leap or by one exact step.
+    *
+    * @param sys - system index
+    * @param ran - random number stream
+    * @param w - work arrays
+    * @return reactions fired
+    */
+    private long leap(int sys, Random ran, Scratch w){
+        int offset = sys*nSpecies;
+        double[] a = w.a;
+        double a0 = network.propensities(state, offset, a);
+        if(a0 <= 0){return 0;}
+
+        // critical reactions could use up a reactant in a few firings
+        double a0c = 0;
+        for(int r = 0;r < nRxn;r++){
+            w.critical[r] = false;
+            if(a[r] <= 0){continue;}
+            for(int s = 0;s < nSpecies;s++){
+                if(nu[r][s] < 0 && state[offset+s]/(-nu[r][s]) < NUM_CRITICAL){
+                    w.critical[r] = true;
+                    a0c += a[r];
+                    break;
+                }
+            }
+        }
+
+        double tau1 = Math.min(selectTau(offset, a, w.critical), thresholdTau(offset, a));
+        // nothing bounds the leap, or it is too short to pay off
+        if(tau1 < SSA_FACTOR/a0 || Double.isInfinite(tau1)){
+            return exactStep(sys, ran, a, a0);
+        }
+
+        for(int attempt = 0;attempt < MAX_HALVINGS;attempt++){
+            double tau2 = (a0c > 0) ? -Math.log(1.0-ran.nextDouble())/a0c : Double.POSITIVE_INFINITY;
+            double tau = Math.min(tau1, tau2);
+
+            int chosen = -1;
+            if(tau2 <= tau1){
+                // one critical reaction in proportion to its propensity
+                double u = ran.nextDouble()*a0c;
+                double cumul = 0;
+                for(int r = 0;r < nRxn;r++){
+                    if(!w.critical[r]){continue;}
+                    chosen = r;
+                    cumul += a[r];
+                    if(u < cumul){break;}
+                }
+            }
+
+            long total = 0;
+            for(int r = 0;r < nRxn;r++){
+                w.k[r] = w.critical[r] ? ((r == chosen) ? 1 : 0) : PoissonSampler.sample(ran, a[r]*tau);
+                total += w.k[r];
+            }
+
+            if(apply(offset, w)){
+                time[sys] = (float) (time[sys]+tau);
+                return total;
+            }
+            // a population went negative or crossed the threshold, retry with
+            // a shorter leap
+            tau1 = tau1/2;
+        }
+        return exactStep(sys, ran, a, a0);
+    }
+
+    /**
+    *       selectTau gives the largest leap keeping the expected change and
+    *   the standard deviation of every species below epsilon x / g.
+    */
+    private double selectTau(int offset, double[] a, boolean[] critical){
+        double tau = Double.POSITIVE_INFINITY;
+        for(int s = 0;s < nSpecies;s++){
+            if(!inRates[s]){continue;}
+            double mu = 0;
+            double sigma2 = 0;
+            for(int r = 0;r < nRxn;r++){
+                if(critical[r] || nu[r][s] == 0){continue;}
+                mu += nu[r][s]*a[r];
+                sigma2 += ((double)nu[r][s])*nu[r][s]*a[r];
+            }
+            int x = state[offset+s];
+            double bound = Math.max(epsilon*x/highestOrderFactor(s, x), 1.0);
+            if(mu != 0){tau = Math.min(tau, bound/Math.abs(mu));}
+            if(sigma2 > 0){tau = Math.min(tau, bound*bound/sigma2);}
+        }
+        return tau;
+    }
+
+    /**
+    *       thresholdTau gives the longest leap over which the rise of the 
+    *   switch species, mean plus SWITCH_SIGMAS standard deviations, stays
+    *   within the distance to the threshold.
+    */
+    private double thresholdTau(int offset, double[] a){
+        int sw = network.getSwitchSpecies();
+        if(sw < 0){return Double.POSITIVE_INFINITY;}
+        double d = network.getSwitchThreshold()-state[offset+sw];
+        if(d <= 0){return 0;}
+        double mu = 0;
+        double sigma2 = 0;
+        for(int r = 0;r < nRxn;r++){
+            if(nu[r][sw] == 0){continue;}
+            mu += nu[r][sw]*a[r];
+            sigma2 += ((double)nu[r][sw])*nu[r][sw]*a[r];
+        }
+        mu = Math.max(mu, 0);
+        double sigma = SWITCH_SIGMAS*Math.sqrt(sigma2);
+        if(sigma <= 0){return (mu > 0) ? d/mu : Double.POSITIVE_INFINITY;}
+        // mu tau + sigma sqrt(tau) = d, solved for sqrt(tau)
+        double root = (mu > 0) ? (Math.sqrt(sigma*sigma+4*mu*d)-sigma)/(2*mu) : d/sigma;
+        return root*root;
+    }
+
+    /**
+    *       highestOrderFactor gives g of Cao et al for a species at count x.
+    */
+    private double highestOrderFactor(int s, int x){
+        double g;
+        int order = highestOrder[s];
+        int c = highestCoeff[s];
+        if(order <= 1 || c <= 1 || x < 3){
+            g = Math.max(order, 1);
+        }else if(order == 2){
+            g = 2+1.0/(x-1);
+        }else if(c == 2){
+            g = 1.5*(2+1.0/(x-1));
+        }else{
+            g = order+1.0/(x-1)+2.0/(x-2);
+        }
+        return Math.max(g, modifierOrder[s]);
+    }
+
+    /**
+    *       apply adds the reaction counts of a leap to a system unless a count
+    *   would go negative or the leap would cross the switch threshold.
+    *
+    * @return true if applied
+    */
+    private boolean apply(int offset, Scratch w){
+        for(int s = 0;s < nSpecies;s++){w.delta[s] = 0;}
+        for(int r = 0;r < nRxn;r++){
+            if(w.k[r] == 0){continue;}
+            for(int s = 0;s < nSpecies;s++){
+                w.delta[s] += w.k[r]*nu[r][s];
+            }
+        }
+        for(int s = 0;s < nSpecies;s++){
+            if(state[offset+s]+w.delta[s] < 0){return false;}
+        }
+        int sw = network.getSwitchSpecies();
+        if(sw >= 0 && state[offset+sw]+w.delta[sw] > network.getSwitchThreshold()){return false;}
+        for(int s = 0;s < nSpecies;s++){
+            state[offset+s] += (int) w.delta[s];
+        }
+        return true;
+    }
+
+    /**
+    *       exactStep is one direct method step.
+    */
+    private long exactStep(int sys, Random ran, double[] a, double a0){
+        time[sys] = (float) (time[sys]-Math.log(1.0-ran.nextDouble())/a0);
+        double u = ran.nextDouble()*a0;
+        int r = nRxn-1;
+        double cumul = 0;
+        for(int j = 0;j < nRxn-1;j++){
+            cumul += a[j];
+            if(u < cumul){
+                r = j;
+                break;
+            }
+        }
+        network.fire(r, state, sys*nSpecies);
+        return 1;
+    }
+
+    @Override
+    public String getName(){
+        return "tau-leap";
+    }
+}
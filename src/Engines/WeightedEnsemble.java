@@ -0,0 +1,344 @@
+package Engines;
+/*
+ *   @(#)   WeightedEnsemble
+ */
+
+import Models.ReactionNetwork;
+import java.util.Random;
+
+/**
+*      WeightedEnsemble estimates the switching rate of a rare transition by
+*   the weighted ensemble method of Huber and Kim. The systems array holds
+*   weighted walkers, at most walkersPerBin in every bin of an order parameter,
+*   by default the count of one species minus another such as p2-p1. Every
+*   iteration propagates all walkers exactly for a time tau, then splits the
+*   heaviest walkers of bins short of walkers and merges the lightest of bins
+*   with too many, so walkers spread over the barrier while the total weight
+*   stays 1.
+*
+*   <br>
+*   A walker that meets the first passage condition gives its weight to the
+*   flux and restarts from the initial state. In steady state the mean first
+*   passage time from the initial state is 1/flux, the flux being the weight
+*   arriving per unit time.
+*
+*   <br>
+*   Slots with zero weight are free. The systems array needs room for every bin
+*   full, (edges+1)*walkersPerBin systems.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class WeightedEnsemble {
+    private ReactionNetwork network;
+    private int nSpecies;
+    private int[] state;
+    private int slots;
+    private double[] weight;
+    private float[] edges;
+    private int walkersPerBin;
+    private double tau;
+    private int plusSpecies;
+    private int minusSpecies = -1;
+    private int Warmup = 100;
+    private double[] props;
+    // walkers of every bin, rebuilt each resampling
+    private int[][] binMembers;
+    private int[] binCount;
+    private int[] freeSlots;
+    private int iteration = 0;
+    private long samples = 0;
+    private double fluxSum = 0;
+    private double fluxSqSum = 0;
+    private double lastFlux = 0;
+    private long reactions = 0;
+
+    /**
+    *       WeightedEnsemble creates the ensemble over the systems array. The
+    *   order parameter defaults to the switch species of the network.
+    *
+    * @param net - network to simulate
+    * @param counts - species counts, interleaved per system
+    * @param binEdges - increasing bin edges of the order parameter
+    * @param perBin - walkers per occupied bin
+    * @param interval - time every walker is propagated per iteration
+    */
+    public WeightedEnsemble(ReactionNetwork net, int[] counts, float[] binEdges, int perBin, double interval){
+        network = net;
+        nSpecies = net.getNumSpecies();
+        state = counts;
+        slots = counts.length/nSpecies;
+        edges = binEdges.clone();
+        walkersPerBin = perBin;
+        tau = interval;
+        plusSpecies = Math.max(0, net.getSwitchSpecies());
+        if((edges.length+1)*perBin > slots){
+            throw new IllegalArgumentException("Weighted ensemble of "+(edges.length+1)+" bins of "
+                    +perBin+" walkers needs "+(edges.length+1)*perBin+" systems, have "+slots);
+        }
+        weight = new double[slots];
+        props = new double[net.getNumReactions()];
+        binMembers = new int[edges.length+1][slots];
+        binCount = new int[edges.length+1];
+        freeSlots = new int[slots];
+    }
+
+    /**
+    *       setOrderParameter sets the order parameter to the count of one
+    *   species minus another.
+    *
+    * @param plus - species counted positive
+    * @param minus - species counted negative, -1 for none
+    */
+    public void setOrderParameter(int plus, int minus){
+        plusSpecies = plus;
+        minusSpecies = minus;
+    }
+
+    /**
+    *       setWarmup sets the iterations left out of the rate while the
+    *   ensemble relaxes to steady state.
+    */
+    public void setWarmup(int iterations){
+        Warmup = iterations;
+    }
+
+    /**
+    *       initialize puts walkersPerBin walkers of equal weight in the initial
+    *   state and frees every other slot.
+    */
+    public void initialize(){
+        for(int i = 0;i < slots;i++){
+            weight[i] = (i < walkersPerBin) ? 1.0/walkersPerBin : 0.0;
+            network.reset(state, i*nSpecies);
+        }
+        iteration = 0;
+        samples = 0;
+        fluxSum = 0;
+        fluxSqSum = 0;
+    }
+
+    /**
+    *       iterate propagates every walker for tau then resamples the bins.
+    *
+    * @param ran - random number stream
+    * @return flux of this iteration, weight arrived per unit time
+    */
+    public double iterate(Random ran){
+        double arrived = 0;
+        for(int i = 0;i < slots;i++){
+            if(weight[i] > 0){arrived += propagate(i, ran);}
+        }
+        resample(ran);
+
+        lastFlux = arrived/tau;
+        iteration++;
+        if(iteration > Warmup){
+            samples++;
+            fluxSum += lastFlux;
+            fluxSqSum += lastFlux*lastFlux;
+        }
+        return lastFlux;
+    }
+
+    /**
+    *       propagate runs one walker exactly for tau by the direct method.
+    *   Leaving the last reaction past tau unfired is exact as waiting times
+    *   are memoryless.
+    *
+    * @param sys - system index
+    * @param ran - random number stream
+    * @return weight arrived at the switch
+    */
+    private double propagate(int sys, Random ran){
+        int offset = sys*nSpecies;
+        double arrived = 0;
+        double t = 0;
+        while(true){
+            double a0 = network.propensities(state, offset, props);
+            if(a0 <= 0){break;}
+            t = t-Math.log(1.0-ran.nextDouble())/a0;
+            if(t >= tau){break;}
+
+            double u = ran.nextDouble()*a0;
+            int r = props.length-1;
+            double cumul = 0;
+            for(int j = 0;j < props.length-1;j++){
+                cumul += props[j];
+                if(u < cumul){
+                    r = j;
+                    break;
+                }
+            }
+            network.fire(r, state, offset);
+            reactions++;
+
+            if(network.hasSwitched(state, offset)){
+                arrived += weight[sys];
+                network.reset(state, offset);
+            }
+        }
+        return arrived;
+    }
+
+    /**
+    *       resample merges walkers of every bin down to walkersPerBin, then
+    *   splits walkers of every occupied bin up to it using the freed slots.
+    */
+    private void resample(Random ran){
+        for(int b = 0;b < binCount.length;b++){binCount[b] = 0;}
+        for(int i = 0;i < slots;i++){
+            if(weight[i] <= 0){continue;}
+            int b = bin(i);
+            binMembers[b][binCount[b]++] = i;
+        }
+
+        for(int b = 0;b < binCount.length;b++){
+            while(binCount[b] > walkersPerBin){
+                merge(b, ran);
+            }
+        }
+
+        int nFree = 0;
+        for(int i = 0;i < slots;i++){
+            if(weight[i] <= 0){freeSlots[nFree++] = i;}
+        }
+        for(int b = 0;b < binCount.length;b++){
+            while(binCount[b] > 0 && binCount[b] < walkersPerBin){
+                split(b, freeSlots[--nFree]);
+            }
+        }
+    }
+
+    /**
+    *       merge joins the two lightest walkers of a bin, keeping one of them
+    *   with probability proportional to its weight.
+    */
+    private void merge(int b, Random ran){
+        int[] members = binMembers[b];
+        int first = 0;
+        int second = 1;
+        if(weight[members[second]] < weight[members[first]]){first = 1; second = 0;}
+        for(int k = 2;k < binCount[b];k++){
+            if(weight[members[k]] < weight[members[first]]){
+                second = first;
+                first = k;
+            }else if(weight[members[k]] < weight[members[second]]){
+                second = k;
+            }
+        }
+        int i = members[first];
+        int j = members[second];
+        double total = weight[i]+weight[j];
+        int keep = (ran.nextDouble()*total < weight[i]) ? i : j;
+        int drop = (keep == i) ? j : i;
+        weight[keep] = total;
+        weight[drop] = 0;
+
+        int dropIndex = (drop == i) ? first : second;
+        members[dropIndex] = members[--binCount[b]];
+    }
+
+    /**
+    *       split copies the heaviest walker of a bin into a free slot, halving
+    *   its weight.
+    */
+    private void split(int b, int free){
+        int[] members = binMembers[b];
+        int heaviest = members[0];
+        for(int k = 1;k < binCount[b];k++){
+            if(weight[members[k]] > weight[heaviest]){heaviest = members[k];}
+        }
+        System.arraycopy(state, heaviest*nSpecies, state, free*nSpecies, nSpecies);
+        weight[heaviest] = weight[heaviest]/2;
+        weight[free] = weight[heaviest];
+        members[binCount[b]++] = free;
+    }
+
+    /**
+    *       bin gives the bin of a walker from its order parameter.
+    *
+    * @param sys - system index
+    */
+    public int bin(int sys){
+        float q = orderParameter(sys);
+        int b = 0;
+        while(b < edges.length && q >= edges[b]){b++;}
+        return b;
+    }
+
+    /**
+    *       orderParameter gives the order parameter of a walker.
+    *
+    * @param sys - system index
+    */
+    public float orderParameter(int sys){
+        int offset = sys*nSpecies;
+        int q = state[offset+plusSpecies];
+        if(minusSpecies >= 0){q -= state[offset+minusSpecies];}
+        return q;
+    }
+
+    public int getIteration(){return iteration;}
+    public long getReactionCount(){return reactions;}
+    public double getLastFlux(){return lastFlux;}
+
+    /**
+    *       getRate gives the mean flux after warmup, the switching rate.
+    */
+    public double getRate(){
+        return (samples > 0) ? fluxSum/samples : 0.0;
+    }
+
+    /**
+    *       getRateError gives the standard error of the rate, treating the
+    *   iterations as independent so it is a lower bound.
+    */
+    public double getRateError(){
+        if(samples < 2){return 0.0;}
+        double mean = fluxSum/samples;
+        double var = (fluxSqSum/samples-mean*mean)*samples/(samples-1);
+        return Math.sqrt(Math.max(var, 0)/samples);
+    }
+
+    /**
+    *       getMeanFirstPassageTime gives 1/rate.
+    */
+    public double getMeanFirstPassageTime(){
+        double rate = getRate();
+        return (rate > 0) ? 1.0/rate : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+    *       getNumWalkers gives the number of walkers with weight.
+    */
+    public int getNumWalkers(){
+        int n = 0;
+        for(int i = 0;i < slots;i++){
+            if(weight[i] > 0){n++;}
+        }
+        return n;
+    }
+
+    /**
+    *       getTotalWeight gives the weight of all walkers, 1 up to rounding.
+    */
+    public double getTotalWeight(){
+        double w = 0;
+        for(int i = 0;i < slots;i++){w += weight[i];}
+        return w;
+    }
+
+    /**
+    *       report gives the rate and mean first passage time so far.
+    */
+    public String report(){
+        double rate = getRate();
+        double err = getRateError();
+        double mfpt = getMeanFirstPassageTime();
+        return String.format("WE iteration %d  walkers %d  rate %.4g +- %.2g  MFPT %.4g +- %.2g  reactions %d",
+                iteration, getNumWalkers(), rate, err, mfpt, (rate > 0) ? mfpt*err/rate : 0.0, reactions);
+    }
+}
@@ -0,0 +1,161 @@
+package Experimental;
+/*
+ *   @(#)   DeviceHillTable
+ */
+
+import GPUBackend.OpenCLHandler;
+import Models.HillTable;
+
+/**
+*      DeviceHillTable keeps the Hill propensity table of the toggle switch
+*   kernels on the device: two rows of size entries per parameter set, alpha1
+*   repressed by p2 then alpha2 repressed by p1, with the counter of the
+*   largest count the kernels found past its end and the size argument. The
+*   table starts at twice the largest steady state or initial count and shares
+*   constant memory with the parameter table. The owner reads the counter
+*   between steps and grows the table to cover it.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class DeviceHillTable {
+    // row length of the parameter table, fixed by the toggle switch kernels
+    public static final int NUM_PARAMS = 10;
+    private OpenCLHandler clHandler;
+    private String kernelName;
+    private float[] paramTable;
+    private int tableArg;
+    private int missArg;
+    private int sizeArg;
+    private int size;
+    private boolean full = false;
+    private int[] miss = new int[1];
+
+    /**
+    *       DeviceHillTable creates the table, the miss counter and the size
+    *   argument of a kernel.
+    *
+    * @param handler - handler holding the kernel
+    * @param kernelname - step kernel
+    * @param table - parameter table, one row per set
+    * @param floatArgn - float buffer number of the table
+    * @param missArgn - int buffer number of the miss counter
+    * @param sizeArgn - int argument number of the table size
+    */
+    public DeviceHillTable(OpenCLHandler handler, String kernelname, float[] table,
+            int floatArgn, int missArgn, int sizeArgn){
+        clHandler = handler;
+        kernelName = kernelname;
+        paramTable = table;
+        tableArg = floatArgn;
+        missArg = missArgn;
+        sizeArg = sizeArgn;
+
+        float largest = 0;
+        for(int i = 0;i < table.length/NUM_PARAMS;i++){
+            int row = i*NUM_PARAMS;
+            largest = Math.max(largest, table[row]*table[row+2]);
+            largest = Math.max(largest, table[row+1]*table[row+3]);
+            largest = Math.max(largest, table[row+8]);
+        }
+        int s = HillTable.MIN_SIZE;
+        while(s < 2*largest){s *= 2;}
+        size = Math.min(s, getMaxSize());
+
+        float[] hill = getTable(size);
+        clHandler.createFloatBuffer(kernelName, tableArg, hill.length, hill, 1, true);
+        clHandler.createIntBuffer(kernelName, missArg, 1, 0, 0, true);
+        clHandler.createIntArg(kernelName, sizeArg, size);
+        System.out.println("Hill table of "+size+" counts per protein.");
+    }
+
+    public int getSize(){
+        return size;
+    }
+
+    public boolean isFull(){
+        return full;
+    }
+
+    /**
+    *       getMissArg gives the int buffer number of the miss counter, for
+    *   owners reading it behind their steps.
+    */
+    public int getMissArg(){
+        return missArg;
+    }
+
+    /**
+    *       needsGrowth tells if a count read from the miss counter is past the
+    *   end of a table that can still grow.
+    *
+    * @param count - largest count found past the table
+    */
+    public boolean needsGrowth(int count){
+        return !full && count >= size;
+    }
+
+    /**
+    *       readMiss reads the miss counter, blocking until the steps are done.
+    */
+    public int readMiss(){
+        clHandler.readIntBuffer(kernelName, missArg, miss, 1);
+        return miss[0];
+    }
+
+    /**
+    *       grow doubles the table until it covers a count, as far as constant
+    *   memory allows, and clears the miss counter. Counts past it keep using
+    *   pow. No step may be running.
+    *
+    * @param count - count to cover
+    */
+    public void grow(int count){
+        int max = getMaxSize();
+        int s = size;
+        while(s <= count && s < max){s = Math.min(2*s, max);}
+
+        if(s == size){
+            full = true;
+            System.out.println("Hill table full at "+size+" counts per protein, larger counts use pow.");
+            return;
+        }
+
+        miss[0] = 0;
+        clHandler.writeIntBuffer(kernelName, missArg, miss);
+        size = s;
+        clHandler.replaceFloatBuffer(kernelName, tableArg, getTable(size), 1);
+        clHandler.createIntArg(kernelName, sizeArg, size);
+        clHandler.setKernelArg(kernelName, true);
+        System.out.println("Hill table grown to "+size+" counts per protein.");
+    }
+
+    /**
+    *       getTable gives the birth propensities of every parameter set for
+    *   counts 0 to size-1.
+    *
+    * @param s - counts per row
+    */
+    private float[] getTable(int s){
+        int nSets = paramTable.length/NUM_PARAMS;
+        float[] hill = new float[nSets*2*s];
+        for(int i = 0;i < nSets;i++){
+            int row = i*NUM_PARAMS;
+            new HillTable(paramTable[row+7], paramTable[row+4], false).fill(hill, (2*i)*s, s, paramTable[row]);
+            new HillTable(paramTable[row+6], paramTable[row+5], false).fill(hill, (2*i+1)*s, s, paramTable[row+1]);
+        }
+        return hill;
+    }
+
+    /**
+    *       getMaxSize gives the largest table fitting the constant memory left
+    *   by the parameter table.
+    */
+    private int getMaxSize(){
+        int nSets = paramTable.length/NUM_PARAMS;
+        long free = clHandler.getMaxConstantBufferSize()-paramTable.length*4L;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, free/(nSets*2*4L)));
+    }
+}
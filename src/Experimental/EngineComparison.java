@@ -0,0 +1,96 @@
+package Experimental;
+/*
+ *   @(#)   EngineComparison
+ */
+
+import Measurement.FirstPassageStatistics;
+import Models.ReactionNetwork;
+import Models.ToggleSwitchModel;
+
+/**
+*      EngineComparison reports the error and speed trade-off of the JVM
+*   engines. Every engine collects the same number of switch times on the same
+*   network, the exact direct method is the reference. For each engine it
+*   prints the mean switch time with its standard error, the difference to the
+*   reference in standard errors, reactions per second and switches per second
+*   of wall time.
+*
+*   <br>
+*   The network is a toggle switch started from no protein with alpha2 twice
+*   alpha1, so p2 wins and every system crosses the threshold in the high copy
+*   regime where leaping pays off.
+*   <br>
+*   Usage: EngineComparison [beta] [threshold] [events] [systems]
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class EngineComparison {
+    private static float beta = 9.0f;
+    private static int threshold = 400;
+    private static int Events = 20000;
+    private static int NumOfSystems = 1024;
+    private static int MaxSteps = 1000000;
+    private static String[] Engines = {"direct", "next-reaction", "tau-leap", "tau-leap", "tau-leap"};
+    private static double[] Epsilons = {0, 0, 0.03, 0.15, 0.3};
+
+    public static void main(String[] args){
+        if(args.length > 0){beta = Float.parseFloat(args[0]);}
+        if(args.length > 1){threshold = Integer.parseInt(args[1]);}
+        if(args.length > 2){Events = Integer.parseInt(args[2]);}
+        if(args.length > 3){NumOfSystems = Integer.parseInt(args[3]);}
+
+        String[] lines = new String[Engines.length];
+        double refMean = 0;
+        double refError = 0;
+        double refRate = 0;
+        for(int e = 0;e < Engines.length;e++){
+            ReactionNetwork net = ToggleSwitchModel.create(beta*10, beta*20, beta, beta, 2.0f, 2.0f,
+                    beta, beta, 0, 0);
+            net.setFirstPassage(net.getSpeciesIndex("p2"), threshold);
+
+            GillespieSwitchSimRegular sim = new GillespieSwitchSimRegular();
+            sim.setNetwork(net);
+            sim.setNumOfSystems(NumOfSystems);
+            sim.setEngine(Engines[e]);
+            sim.setLeapEpsilon(Epsilons[e]);
+            sim.setTakeData(true);
+            sim.setRawOutput(false);
+            sim.setFindAverage(false);
+            // leaps span many reactions, harvest every step so no switch is lost
+            sim.setCheckMeasureTime(1);
+            sim.setCheckpointHarvests(0);
+            sim.initialize();
+
+            long start = System.nanoTime();
+            FirstPassageStatistics stats = sim.getStatistics();
+            for(int i = 0;i < MaxSteps && stats.getCount() < Events;i++){
+                sim.doOneStep();
+            }
+            double seconds = (System.nanoTime()-start)/1e9;
+            sim.shutdownWorkers();
+
+            double switchRate = stats.getCount()/seconds;
+            if(e == 0){
+                refMean = stats.getMean();
+                refError = stats.getStandardError();
+                refRate = switchRate;
+            }
+            double z = (stats.getMean()-refMean)
+                    /Math.sqrt(refError*refError+stats.getStandardError()*stats.getStandardError());
+            String name = Engines[e]+((Epsilons[e] > 0) ? " eps="+Epsilons[e] : "");
+            lines[e] = String.format("%-20s %8d %10.4f %8.4f %7.2f %12.4g %10.1f %7.2fx",
+                    name, stats.getCount(), stats.getMean(), stats.getStandardError(),
+                    (e == 0) ? 0.0 : z, sim.getReactionCount()/seconds, switchRate, switchRate/refRate);
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-20s %8s %10s %8s %7s %12s %10s %8s",
+                "engine", "events", "mean", "stderr", "z", "reactions/s", "switch/s", "speedup"));
+        for(int e = 0;e < lines.length;e++){
+            System.out.println(lines[e]);
+        }
+    }
+}
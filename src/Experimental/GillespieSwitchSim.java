@@ -4,13 +4,28 @@ package Experimental;
  * @(#)  GillespieSwitchSim
  */
 
+import GPUBackend.KernelPipeline;
 import GPUBackend.OpenCLHandler;
+import GPUBackend.PipelineFuture;
+import Measurement.BinarySwitchTimeWriter;
+import Measurement.FirstPassageStatistics;
+import Measurement.MultiSwitchTimeSink;
+import Measurement.SweepStatistics;
+import Measurement.SwitchTimeSink;
+import Models.NetworkKernelGenerator;
+import Models.ParameterSweep;
+import Models.ReactionNetwork;
+import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -37,23 +52,119 @@ public class GillespieSwitchSim {
     private float n1 = 2.0f;
     private float n2 = 2.0f;
     private int GlobalWorkSize = NumOfSystems;
-    private int LocalWorkSize = 64;
+    // 0 tunes it on the first run on a device
+    private int LocalWorkSize = 0;
     private String gillespieKernelName = "gillespie_switch";
-    private String RNGKernelName = "mersenne_twister";   
+    private String RNGKernelName = "xorshift_rng";   
     private int MCsteps = 0;
     private int CheckMeasureTime = 5000;
-    private String fillFlKernelName = "fill_float_buffer";
     private int MaxSteps = 100000000;
-    private String dataDirectory = "/home/j2/Classwork/Data/";
+    private String dataDirectory = "./";
     private String dataFilename =  "gillespieSwitchData40.txt";
     private boolean findAverage =false;
     private boolean takeData=true;
     private String DeviceType="CPU";
     private Random ran;
     private boolean profileTime = false;
+    private int ReactionsPerLaunch = 1;
+    private float TimeHorizon = 0.0f;
+    private String multiKernelName = SwitchMultiKernel.NAME;
+    private String stepKernelName = gillespieKernelName;
+    private int eventCountArg = 3;
+    private int eventTimeArg = 3;
+    private int EventCapacity = NumOfSystems;
+    private boolean OutOfOrderQueue = false;
+    private KernelPipeline stepPipeline;
+    private PipelineFuture lastStep;
+    private String harvestBufferName = "events_harvest";
+    private int[] harvestCount;
+    private int[] harvestInfo;
+    private float[] harvestTimes;
+    private ExecutorService writerPool;
+    private Future<?> writerTask;
+    private long Seed = System.nanoTime();
+    private boolean BinaryOutput = false;
+    private String binaryFilename = "gillespieSwitchData40.gsw";
+    private SwitchTimeSink dataSink;
+    private boolean RawOutput = true;
+    private boolean TrackStatistics = true;
+    private int ReportInterval = 10;
+    private FirstPassageStatistics statistics;
+    private int nHarvests = 0;
+    private PipelineFuture pendingRead;
+    private Runnable writeHarvestTask;
+    private int[] averageBuffer;
+    private ReactionNetwork Network;
+    private String networkKernelName = "gillespie_network";
+    private String generatedKernelName = "gillespie_generated";
+    private boolean GenerateKernel = true;
+    private String KernelCache;
+    private int DeviceIndex = -1;
+    private String KernelDirectory;
+    private String BuildOptions = "";
+    private ParameterSweep Sweep;
+    private SweepStatistics sweepStatistics;
+    private DeviceHillTable hillTable;
+    private int[] tableMiss = new int[1];
+    private PipelineFuture pendingMiss;
+    private BinarySwitchTimeWriter binaryWriter;
+    private int CheckpointHarvests = 100;
+    private String checkpointFilename = "gillespieSwitchData40.ckpt";
+    private String ResumeFile;
+    private SimulationCheckpoint resumed;
+    private Future<?> checkpointTask;
+    private int nChecks = 0;
+    // device buffers holding the state of the run, with reused host copies
+    private ArrayList<String> ckIntKernels = new ArrayList<String>();
+    private ArrayList<Integer> ckIntArgs = new ArrayList<Integer>();
+    private ArrayList<int[]> ckInts = new ArrayList<int[]>();
+    private ArrayList<String> ckFloatKernels = new ArrayList<String>();
+    private ArrayList<Integer> ckFloatArgs = new ArrayList<Integer>();
+    private ArrayList<float[]> ckFloats = new ArrayList<float[]>();
     
     public void initialize(){
     
+        float[] sysparams = getSysParams();
+    
+        if(ResumeFile != null){
+            try {
+                resumed = SimulationCheckpoint.read(ResumeFile);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read checkpoint "+ResumeFile, e);
+            }
+            resumed.check(getStepKernelName(), NumOfSystems);
+            Seed = resumed.getSeed();
+        }
+        
+        ran = new Random(Seed);
+        
+        if(takeData && dataSink == null){
+            dataSink = createSinks(sysparams);
+        }
+        
+        clHandler = new OpenCLHandler();
+        if(KernelCache != null){
+            clHandler.setBinaryCache(KernelCache.equals("none") ? null : KernelCache);
+        }
+        clHandler.setKernelDirectory(KernelDirectory);
+        clHandler.setBuildOptions(BuildOptions);
+        
+        clHandler.initializeOpenCL(DeviceType, DeviceIndex, OutOfOrderQueue);
+        // buffers stay in the device, host only reads when measuring
+        clHandler.setDeviceResident(true);
+        
+        initializeKernels(sysparams);
+        setWorkSize();
+        
+        if(resumed != null){
+            restoreCheckpoint();
+        }
+    }
+    
+    /**
+    *       getSysParams gives the model parameters in the sysparams layout.
+    */
+    private float[] getSysParams(){
         float[] sysparams = new float[10];
         sysparams[0] = alpha1;
         sysparams[1] = alpha2;
@@ -65,68 +176,773 @@ public class GillespieSwitchSim {
         sysparams[7] = kappa2;
         sysparams[8] = (float) p1initial;
         sysparams[9] = (float) p2initial;
+        return sysparams;
+    }
     
+    /**
+    *       openDataSink creates the sinks this run would write to, without 
+    *   starting it, so runs over parts of the ensemble can share them. 
+    *   Statistics are then available from getStatistics.
+    */
+    public SwitchTimeSink openDataSink(){
+        return createSinks(getSysParams());
+    }
+    
+    /**
+    *       setDataSink makes the run pass its harvests to the given sink 
+    *   instead of creating its own, call before initialize. The sink is closed
+    *   at the end of the run.
+    */
+    public void setDataSink(SwitchTimeSink sink){
+        dataSink = sink;
+    }
+    
+    /**
+    *       getStatistics gives the switch time statistics of the sinks created
+    *   by this run, null if none.
+    */
+    public FirstPassageStatistics getStatistics(){
+        return statistics;
+    }
+    
+    /**
+    *       release frees the OpenCL context once the run is finished.
+    */
+    public void release(){
+        clHandler.closeOpenCL();
+    }
+    
+    /**
+    *       setWorkSize tunes the local work size unless one is set and pads the
+    *   global work size to a multiple of it, the kernels skip the padding. 
+    *   Tuning launches real steps when no size is saved for the device, the
+    *   state saved by checkpoints is then uploaded and read before tuning and
+    *   written back after it, and its switch events are dropped.
+    */
+    private void setWorkSize(){
+        if(LocalWorkSize <= 0 && clHandler.hasTunedLocalWorkSize(stepPipeline)){
+            LocalWorkSize = clHandler.getTunedLocalWorkSize(stepPipeline, NumOfSystems);
+        }else if(LocalWorkSize <= 0){
+            for(int i = 0;i < stepPipeline.size();i++){
+                clHandler.uploadPending(stepPipeline.getKernelName(i));
+            }
+            for(int i = 0;i < ckInts.size();i++){
+                int[] dst = ckInts.get(i);
+                clHandler.readIntBuffer(ckIntKernels.get(i), ckIntArgs.get(i), dst, dst.length);
+            }
+            for(int i = 0;i < ckFloats.size();i++){
+                float[] dst = ckFloats.get(i);
+                clHandler.readFloatBuffer(ckFloatKernels.get(i), ckFloatArgs.get(i), dst, dst.length);
+            }
+            LocalWorkSize = clHandler.getTunedLocalWorkSize(stepPipeline, NumOfSystems);
+            for(int i = 0;i < ckInts.size();i++){
+                clHandler.writeIntBuffer(ckIntKernels.get(i), ckIntArgs.get(i), ckInts.get(i));
+            }
+            for(int i = 0;i < ckFloats.size();i++){
+                clHandler.writeFloatBuffer(ckFloatKernels.get(i), ckFloatArgs.get(i), ckFloats.get(i));
+            }
+            clearEvents();
+        }
+        GlobalWorkSize = OpenCLHandler.padGlobalSize(Math.max(GlobalWorkSize, NumOfSystems), LocalWorkSize);
+        stepPipeline = stepPipeline.withWorkSize(GlobalWorkSize, LocalWorkSize);
+        System.out.println("Global work size "+GlobalWorkSize+" in groups of "+LocalWorkSize);
+    }
+    
+    /**
+    *       getStepKernelName gives the step kernel the settings select.
+    */
+    private String getStepKernelName(){
+        if(Network != null){
+            return GenerateKernel ? generatedKernelName : networkKernelName;
+        }
+        return (ReactionsPerLaunch > 1) ? multiKernelName : gillespieKernelName;
+    }
+    
+    /**
+    *       initializeKernels creates the kernels and buffers of the step kernel
+    *   the settings select.
+    * 
+    * @param sysparams - system parameters
+    */
+    private void initializeKernels(float[] sysparams){
+        if(Network != null && GenerateKernel){
+            initializeGenerated();
+            return;
+        }else if(Network != null){
+            initializeNetwork();
+            return;
+        }
         
-        ran = new Random();
-        
-        clHandler = new OpenCLHandler();
-        
-        clHandler.initializeOpenCL(DeviceType);
+        if(ReactionsPerLaunch > 1){
+            initializeMulti(sysparams);
+            return;
+        }
         
         clHandler.createKernel("", gillespieKernelName);
         clHandler.createKernel("", RNGKernelName);
-        clHandler.createKernel("", fillFlKernelName);
 
+        // persistent rng state, seeded once
+        clHandler.createIntBuffer(RNGKernelName, 0, NumOfSystems*4, getSeedSystemsArray(), 0, true);
         // random numbers
         clHandler.createFloatBuffer(RNGKernelName, 0, NumOfSystems*2, 0.0f, 0, true);
-        //seeds
-        clHandler.createIntArg(RNGKernelName, 0, ran.nextInt());
-        clHandler.createIntArg(RNGKernelName, 1, ran.nextInt());
-        clHandler.createIntArg(RNGKernelName, 2, 2);
+        // random numbers per system and num of Elements
+        clHandler.createIntArg(RNGKernelName, 0, 2);
+        clHandler.createIntArg(RNGKernelName, 1, NumOfSystems);
 
         
-        // initialize protein amounts
-        clHandler.createIntBuffer(gillespieKernelName, 0, NumOfSystems, p1initial, 0, true);
-        clHandler.createIntBuffer(gillespieKernelName, 1, NumOfSystems, p2initial, 0, true);
+        float[] table = getParameterTable(sysparams);
+        int[] index = getParameterIndex();
+        
+        // initialize protein amounts from the parameter set of every system
+        clHandler.createIntBuffer(gillespieKernelName, 0, NumOfSystems, getInitialCounts(table, index, 8), 0, true);
+        clHandler.createIntBuffer(gillespieKernelName, 1, NumOfSystems, getInitialCounts(table, index, 9), 0, true);
         // time
         clHandler.createFloatBuffer(gillespieKernelName, 0, NumOfSystems, 0.0f, 0, true);
-        // parameters
-        clHandler.createFloatBuffer(gillespieKernelName, 1, NumOfSystems*sysparams.length, sysparams, 2, false,true);
+        // parameter table
+        clHandler.createFloatBuffer(gillespieKernelName, 1, table.length, table, 1, true);
         // random numbers
         clHandler.copyFlBufferAcrossKernel(RNGKernelName, 0,gillespieKernelName , 2);
-
-        // measured switch times
-        clHandler.createFloatBuffer(gillespieKernelName, 3, NumOfSystems, 0.0f, 0, true);
+        // reactions since last switch
+        clHandler.createIntBuffer(gillespieKernelName, 2, NumOfSystems, 0, 0, true);
+        
+        // switch events
+        createEventBuffers(gillespieKernelName, 3, 3);
+        // parameter set of every system
+        clHandler.createIntBuffer(gillespieKernelName, 5, NumOfSystems, index, 1, true);
         
-        // num of Elements
-        clHandler.createIntArg(gillespieKernelName,0, NumOfSystems);
-        // num of Elements
-        //clHandler.createIntArg(RNGKernelName,1, NumOfSystems*2);
-       
+        // event capacity and num of Elements
+        clHandler.createIntArg(gillespieKernelName,0, EventCapacity);
+        clHandler.createIntArg(gillespieKernelName,1, NumOfSystems);
+        // Hill propensity table
+        hillTable = new DeviceHillTable(clHandler, gillespieKernelName, table, 4, 6, 2);
+        
+        checkpointInts(gillespieKernelName, 0, NumOfSystems);
+        checkpointInts(gillespieKernelName, 1, NumOfSystems);
+        checkpointInts(gillespieKernelName, 2, NumOfSystems);
+        checkpointInts(RNGKernelName, 0, NumOfSystems*4);
+        checkpointFloats(gillespieKernelName, 0, NumOfSystems);
         
         System.out.println("Using Device MB : "+clHandler.getDeviceUsedMB(gillespieKernelName));
         
-        // third kernel
-        clHandler.copyFlBufferAcrossKernel(gillespieKernelName, 3, fillFlKernelName, 0);
-        clHandler.createFloatArg(fillFlKernelName, 0, 0.0f);
+        initializeHarvest();
         
         clHandler.setKernelArg(gillespieKernelName);
         clHandler.setKernelArg(RNGKernelName);
-        clHandler.setKernelArg(fillFlKernelName);
         
+        // rng then gillespie step
+        stepPipeline = new KernelPipeline();
+        stepPipeline.addStage(RNGKernelName, GlobalWorkSize, LocalWorkSize);
+        stepPipeline.addStage(gillespieKernelName, GlobalWorkSize, LocalWorkSize, RNGKernelName);
+    }
+    
+    /**
+    *       createSinks sets up where harvested switch times go: running 
+    *   statistics if TrackStatistics is set and the binary file, recording the
+    *   parameters and seed of the run in its header, if RawOutput and 
+    *   BinaryOutput are set.
+    * 
+    * @param sysparams - system parameters
+    */
+    private SwitchTimeSink createSinks(float[] sysparams){
+        MultiSwitchTimeSink sinks = new MultiSwitchTimeSink();
+        if(TrackStatistics){
+            statistics = new FirstPassageStatistics();
+            sinks.add(statistics);
+        }
+        if(TrackStatistics && Sweep != null){
+            sweepStatistics = new SweepStatistics(Sweep.getSystemIndex(NumOfSystems), Sweep.getNumSets());
+            sinks.add(sweepStatistics);
+        }
+        if(RawOutput && BinaryOutput){
+            try {
+                if(resumed != null && resumed.getEventPosition() >= 0){
+                    // cut events written after the checkpoint, then count the rest again
+                    binaryWriter = new BinarySwitchTimeWriter(dataDirectory+binaryFilename,
+                            resumed.getEventPosition(), resumed.getEventCount());
+                    SimulationCheckpoint.replayEvents(dataDirectory+binaryFilename, sinks);
+                }else{
+                    binaryWriter = new BinarySwitchTimeWriter(dataDirectory+binaryFilename, sysparams, Seed, NumOfSystems);
+                }
+                sinks.add(binaryWriter);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return sinks;
+    }
+    
+    /**
+    *       reportStatistics prints the running switch time statistics every
+    *   ReportInterval harvests.
+    */
+    private void reportStatistics(){
+        nHarvests++;
+        if(statistics != null && (nHarvests % ReportInterval)==0){
+            System.out.println(statistics.report());
+        }
+    }
+    
+    /**
+    *       getParameterTable gives the rows of parameters the systems pick from,
+    *   every set of the sweep or only sysparams without one. The table has to
+    *   fit the constant memory of the device.
+    * 
+    * @param sysparams - system parameters
+    */
+    private float[] getParameterTable(float[] sysparams){
+        float[] table = (Sweep != null) ? Sweep.getTable() : sysparams;
+        if(table.length*4L > clHandler.getMaxConstantBufferSize()){
+            throw new IllegalArgumentException("Parameter table of "+table.length*4L
+                    +" bytes does not fit constant memory of "+clHandler.getMaxConstantBufferSize()+" bytes.");
+        }
+        if(Sweep != null){
+            System.out.println("Sweeping "+Sweep.getNumSets()+" parameter sets.");
+        }
+        return table;
+    }
+    
+    /**
+    *       checkHillTable looks at the largest count the steps found past the 
+    *   end of the Hill table, read behind the steps at the previous check, and
+    *   grows the table to cover it.
+    */
+    private void checkHillTable(){
+        if(hillTable == null || hillTable.isFull()){return;}
+        if(pendingMiss != null){
+            pendingMiss.get();
+            if(hillTable.needsGrowth(tableMiss[0])){
+                waitForSteps();
+                hillTable.grow(tableMiss[0]);
+            }
+        }
+        pendingMiss = clHandler.readIntBufferAsync(stepKernelName, hillTable.getMissArg(), tableMiss, 1, lastStep);
+    }
+    
+    /**
+    *       getParameterIndex gives the parameter set of every system.
+    */
+    private int[] getParameterIndex(){
+        if(Sweep != null){
+            return Sweep.getSystemIndex(NumOfSystems);
+        }
+        return new int[NumOfSystems];
+    }
+    
+    /**
+    *       getInitialCounts gives the starting count of a protein for every 
+    *   system from the row of its parameter set, as the kernels reset to 
+    *   after a switch.
+    * 
+    * @param table - parameter table, one row per set
+    * @param index - parameter set of every system
+    * @param column - 8 for p1, 9 for p2
+    */
+    private int[] getInitialCounts(float[] table, int[] index, int column){
+        int[] counts = new int[NumOfSystems];
+        for(int i = 0;i < NumOfSystems;i++){
+            counts[i] = (int) table[index[i]*DeviceHillTable.NUM_PARAMS+column];
+        }
+        return counts;
+    }
+    
+    /**
+    *       createEventBuffers creates the switch event buffers of the step 
+    *   kernel: an event counter followed by (system id, reaction count) pairs
+    *   as int buffers and the switch times as a float buffer.
+    * 
+    * @param kernelname - step kernel
+    * @param intArgn - int buffer number of the counter, pairs follow it
+    * @param floatArgn - float buffer number of the switch times
+    */
+    private void createEventBuffers(String kernelname, int intArgn, int floatArgn){
+        eventCountArg = intArgn;
+        eventTimeArg = floatArgn;
+        clHandler.createIntBuffer(kernelname, intArgn, 1, 0, 0, true);
+        clHandler.createIntBuffer(kernelname, intArgn+1, EventCapacity*2, 0, 0, true);
+        clHandler.createFloatBuffer(kernelname, floatArgn, EventCapacity, 0.0f, 0, true);
+    }
+    
+    /**
+    *       clearEvents empties the switch event buffers of the step kernel.
+    */
+    private void clearEvents(){
+        clHandler.writeIntBuffer(stepKernelName, eventCountArg, new int[1]);
+    }
+    
+    /**
+    *       initializeMulti sets up the kernel which runs ReactionsPerLaunch 
+    *   reactions per system in every launch, making its own random numbers.
+    * 
+    * @param sysparams - system parameters
+    */
+    private void initializeMulti(float[] sysparams){
+        stepKernelName = multiKernelName;
+        
+        clHandler.createKernel("", multiKernelName);
+        
+        float[] table = getParameterTable(sysparams);
+        int[] index = getParameterIndex();
+        
+        // protein amounts from the parameter set of every system, persistent
+        // rng state seeded once
+        hillTable = SwitchMultiKernel.createBuffers(clHandler, NumOfSystems, getInitialCounts(table, index, 8),
+                getInitialCounts(table, index, 9), table, getSeedSystemsArray(), index, ReactionsPerLaunch,
+                EventCapacity, TimeHorizon);
+        eventCountArg = SwitchMultiKernel.EVENT_COUNT;
+        eventTimeArg = SwitchMultiKernel.EVENT_TIME;
+        
+        checkpointInts(multiKernelName, SwitchMultiKernel.P1, NumOfSystems);
+        checkpointInts(multiKernelName, SwitchMultiKernel.P2, NumOfSystems);
+        checkpointInts(multiKernelName, SwitchMultiKernel.RNG_STATE, NumOfSystems*4);
+        checkpointInts(multiKernelName, SwitchMultiKernel.REACTIONS, NumOfSystems);
+        checkpointFloats(multiKernelName, SwitchMultiKernel.TIME, NumOfSystems);
+        
+        System.out.println("Using Device MB : "+clHandler.getDeviceUsedMB(multiKernelName));
+        
+        initializeHarvest();
+        
+        clHandler.setKernelArg(multiKernelName);
+        
+        stepPipeline = new KernelPipeline();
+        stepPipeline.addStage(multiKernelName, GlobalWorkSize, LocalWorkSize);
+    }
+    
+    /**
+    *       initializeNetwork sets up the kernel which runs any reaction network
+    *   from its reaction tables, ReactionsPerLaunch reactions per system in 
+    *   every launch.
+    */
+    private void initializeNetwork(){
+        Network.checkDeviceLimits();
+        stepKernelName = networkKernelName;
+        int nSpecies = Network.getNumSpecies();
+        
+        clHandler.createKernel("", networkKernelName);
+        
+        // species counts, interleaved per system
+        clHandler.createIntBuffer(networkKernelName, 0, NumOfSystems*nSpecies, Network.getInitialState(), 0, false, true);
+        // reaction tables
+        int[] info = Network.getInfoTable();
+        int[] stoich = Network.getStoichiometryTable();
+        clHandler.createIntBuffer(networkKernelName, 1, info.length, info, 1, true);
+        clHandler.createIntBuffer(networkKernelName, 2, stoich.length, stoich, 1, true);
+        clHandler.createIntBuffer(networkKernelName, 3, nSpecies, Network.getInitialState(), 1, true);
+        // persistent rng state, seeded once
+        clHandler.createIntBuffer(networkKernelName, 4, NumOfSystems*4, getSeedSystemsArray(), 0, true);
+        // reactions since last switch
+        clHandler.createIntBuffer(networkKernelName, 5, NumOfSystems, 0, 0, true);
+        // time
+        clHandler.createFloatBuffer(networkKernelName, 0, NumOfSystems, 0.0f, 0, true);
+        float[] param = Network.getParamTable();
+        clHandler.createFloatBuffer(networkKernelName, 1, param.length, param, 1, true);
+        
+        // switch events
+        createEventBuffers(networkKernelName, 6, 2);
+        
+        // network size, switch condition, reactions per launch, event capacity and num of Elements
+        clHandler.createIntArg(networkKernelName, 0, nSpecies);
+        clHandler.createIntArg(networkKernelName, 1, Network.getNumReactions());
+        clHandler.createIntArg(networkKernelName, 2, Network.getSwitchSpecies());
+        clHandler.createIntArg(networkKernelName, 3, Network.getSwitchThreshold());
+        clHandler.createIntArg(networkKernelName, 4, ReactionsPerLaunch);
+        clHandler.createIntArg(networkKernelName, 5, EventCapacity);
+        clHandler.createIntArg(networkKernelName, 6, NumOfSystems);
+        // time horizon, 0 to always run ReactionsPerLaunch reactions
+        clHandler.createFloatArg(networkKernelName, 0, TimeHorizon);
+        
+        checkpointInts(networkKernelName, 0, NumOfSystems*nSpecies);
+        checkpointInts(networkKernelName, 4, NumOfSystems*4);
+        checkpointInts(networkKernelName, 5, NumOfSystems);
+        checkpointFloats(networkKernelName, 0, NumOfSystems);
+        
+        System.out.println("Using Device MB : "+clHandler.getDeviceUsedMB(networkKernelName));
+        
+        initializeHarvest();
+        
+        clHandler.setKernelArg(networkKernelName);
+        
+        stepPipeline = new KernelPipeline();
+        stepPipeline.addStage(networkKernelName, GlobalWorkSize, LocalWorkSize);
+    }
+    
+    /**
+    *       initializeGenerated sets up a kernel generated for the network, with
+    *   its constants folded and its reactions unrolled, running 
+    *   ReactionsPerLaunch reactions per system in every launch.
+    */
+    private void initializeGenerated(){
+        stepKernelName = generatedKernelName;
+        int nSpecies = Network.getNumSpecies();
+        
+        String source = new NetworkKernelGenerator(Network, generatedKernelName).generate();
+        clHandler.createKernelFromSource(generatedKernelName, source);
+        
+        // species counts, interleaved per system
+        clHandler.createIntBuffer(generatedKernelName, 0, NumOfSystems*nSpecies, Network.getInitialState(), 0, false, true);
+        // persistent rng state, seeded once
+        clHandler.createIntBuffer(generatedKernelName, 1, NumOfSystems*4, getSeedSystemsArray(), 0, true);
+        // reactions since last switch
+        clHandler.createIntBuffer(generatedKernelName, 2, NumOfSystems, 0, 0, true);
+        // time
+        clHandler.createFloatBuffer(generatedKernelName, 0, NumOfSystems, 0.0f, 0, true);
+        
+        // switch events
+        createEventBuffers(generatedKernelName, 3, 1);
+        
+        // reactions per launch, event capacity and num of Elements
+        clHandler.createIntArg(generatedKernelName, 0, ReactionsPerLaunch);
+        clHandler.createIntArg(generatedKernelName, 1, EventCapacity);
+        clHandler.createIntArg(generatedKernelName, 2, NumOfSystems);
+        // time horizon, 0 to always run ReactionsPerLaunch reactions
+        clHandler.createFloatArg(generatedKernelName, 0, TimeHorizon);
+        
+        checkpointInts(generatedKernelName, 0, NumOfSystems*nSpecies);
+        checkpointInts(generatedKernelName, 1, NumOfSystems*4);
+        checkpointInts(generatedKernelName, 2, NumOfSystems);
+        checkpointFloats(generatedKernelName, 0, NumOfSystems);
+        
+        System.out.println("Using Device MB : "+clHandler.getDeviceUsedMB(generatedKernelName));
+        
+        initializeHarvest();
+        
+        clHandler.setKernelArg(generatedKernelName);
+        
+        stepPipeline = new KernelPipeline();
+        stepPipeline.addStage(generatedKernelName, GlobalWorkSize, LocalWorkSize);
+    }
+    
+    /**
+    *       checkpointInts adds an int buffer to the state saved by checkpoints.
+    * 
+    * @param kernelname - kernel the buffer belongs to
+    * @param argn - argument number
+    * @param size - size of the buffer
+    */
+    private void checkpointInts(String kernelname, int argn, int size){
+        ckIntKernels.add(kernelname);
+        ckIntArgs.add(argn);
+        ckInts.add(new int[size]);
+    }
+    
+    /**
+    *       checkpointFloats adds a float buffer to the state saved by 
+    *   checkpoints.
+    * 
+    * @param kernelname - kernel the buffer belongs to
+    * @param argn - argument number
+    * @param size - size of the buffer
+    */
+    private void checkpointFloats(String kernelname, int argn, int size){
+        ckFloatKernels.add(kernelname);
+        ckFloatArgs.add(argn);
+        ckFloats.add(new float[size]);
+    }
+    
+    /**
+    *       restoreCheckpoint writes the saved state into the device buffers. 
+    *   Events of the steps before it are dropped, the Hill table starts small
+    *   again and regrows on the first harvests.
+    */
+    private void restoreCheckpoint(){
+        if(resumed.getNumInts() != ckInts.size() || resumed.getNumFloats() != ckFloats.size()){
+            throw new IllegalArgumentException("Checkpoint "+ResumeFile+" does not match the buffers of "+stepKernelName);
+        }
+        for(int i = 0;i < ckInts.size();i++){
+            if(resumed.getInts(i).length != ckInts.get(i).length){
+                throw new IllegalArgumentException("Checkpoint "+ResumeFile+" does not match the buffers of "+stepKernelName);
+            }
+            clHandler.writeIntBuffer(ckIntKernels.get(i), ckIntArgs.get(i), resumed.getInts(i));
+        }
+        for(int i = 0;i < ckFloats.size();i++){
+            if(resumed.getFloats(i).length != ckFloats.get(i).length){
+                throw new IllegalArgumentException("Checkpoint "+ResumeFile+" does not match the buffers of "+stepKernelName);
+            }
+            clHandler.writeFloatBuffer(ckFloatKernels.get(i), ckFloatArgs.get(i), resumed.getFloats(i));
+        }
+        clearEvents();
+        MCsteps = (int) resumed.getSteps();
+        System.out.println("Resumed "+ResumeFile+" at step "+MCsteps+" with "
+                +resumed.getEventCount()+" switch times.");
+    }
+    
+    /**
+    *       checkpoint reads the state buffers after the step in flight into 
+    *   the reused host copies without waiting, then the writer thread waits
+    *   for the reads and writes the checkpoint behind the harvest, so the end
+    *   of the switch time file matches the state. With an out of order queue
+    *   the reads are waited for here as the next step could overwrite them.
+    */
+    private void checkpoint(){
+        waitForCheckpoint();
+        
+        final SimulationCheckpoint ck = new SimulationCheckpoint(stepKernelName, NumOfSystems);
+        ck.setSteps(MCsteps);
+        ck.setSeed(Seed);
+        final PipelineFuture[] reads = new PipelineFuture[ckInts.size()+ckFloats.size()];
+        for(int i = 0;i < ckInts.size();i++){
+            int[] dst = ckInts.get(i);
+            reads[i] = clHandler.readIntBufferAsync(ckIntKernels.get(i), ckIntArgs.get(i), dst, dst.length, lastStep);
+            ck.addInts(dst);
+        }
+        for(int i = 0;i < ckFloats.size();i++){
+            float[] dst = ckFloats.get(i);
+            reads[ckInts.size()+i] = clHandler.readFloatBufferAsync(ckFloatKernels.get(i), ckFloatArgs.get(i), 
+                    dst, dst.length, lastStep);
+            ck.addFloats(dst);
+        }
+        if(OutOfOrderQueue){
+            for(int i = 0;i < reads.length;i++){reads[i].get();}
+        }
+        
+        final String filename = dataDirectory+checkpointFilename;
+        checkpointTask = writerPool.submit(new Runnable(){
+            @Override
+            public void run(){
+                for(int i = 0;i < reads.length;i++){reads[i].get();}
+                if(binaryWriter != null){
+                    ck.setEventFile(binaryWriter.getPosition(), binaryWriter.getTotalEvents());
+                    binaryWriter.flush();
+                }
+                try {
+                    ck.write(filename);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+    
+    /**
+    *       waitForCheckpoint blocks until the last checkpoint is on disk.
+    */
+    private void waitForCheckpoint(){
+        if(checkpointTask == null){return;}
+        try {
+            checkpointTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        checkpointTask = null;
+    }
+    
+    /**
+    *       initializeHarvest creates the second set of event buffers and the
+    *   writer thread. The kernel appends events to one set while the other is 
+    *   read and written out in the background.
+    */
+    private void initializeHarvest(){
+        clHandler.createIntBuffer(harvestBufferName, 0, 1, 0, 0, true);
+        clHandler.createIntBuffer(harvestBufferName, 1, EventCapacity*2, 0, 0, true);
+        clHandler.createFloatBuffer(harvestBufferName, 0, EventCapacity, 0.0f, 0, true);
+        harvestCount = new int[1];
+        harvestInfo = new int[EventCapacity*2];
+        harvestTimes = new float[EventCapacity];
+        writeHarvestTask = new Runnable(){
+            @Override
+            public void run(){
+                writeHarvest();
+            }
+        };
+        writerPool = Executors.newSingleThreadExecutor();
+    }
+    
+    /**
+    *       launchStep enqueues the next step behind the one in flight and then
+    *   waits for the earlier one, so one step is always queued in the device
+    *   while the host carries on.
+    * 
+    * @param pipeline - step to enqueue
+    */
+    private void launchStep(KernelPipeline pipeline){
+        PipelineFuture next = clHandler.runPipeline(pipeline, lastStep);
+        if(lastStep != null){lastStep.get();}
+        lastStep = next;
+    }
+    
+    /**
+    *       waitForSteps blocks until all enqueued steps have completed.
+    */
+    public void waitForSteps(){
+        if(lastStep != null){
+            lastStep.get();
+            lastStep = null;
+        }
+    }
+    
+    /**
+    *       setNumOfSystems sets the number of systems along with the global
+    *   work size and event capacity, call before initialize.
+    */
+    public void setNumOfSystems(int n){
+        NumOfSystems = n;
+        GlobalWorkSize = n;
+        EventCapacity = n;
+    }
+    
+    /**
+    *       configure applies a run configuration, call before initialize. Keys
+    *   not set keep the defaults of the fields. The keys are
+    *   <br>
+    *   device: systems, globalWorkSize, localWorkSize (0 tunes it), 
+    *   eventCapacity, device (CPU, GPU, a platform name or "" for any), 
+    *   deviceIndex (-1 for the fastest), outOfOrderQueue, 
+    *   reactionsPerLaunch, timeHorizon, 
+    *   generateKernel, kernelCache (directory of built kernels or none),
+    *   kernelDirectory (searched before the classpath), buildOptions (OpenCL
+    *   compiler options such as -cl-fast-relaxed-math or -D macros)
+    *   <br>
+    *   model: beta, alpha1, alpha2, tau1, tau2, kappa1, kappa2, n1, n2, 
+    *   p1initial, p2initial
+    *   <br>
+    *   run: seed, maxSteps, checkMeasureTime, takeData, findAverage, 
+    *   profileTime, statistics, reportInterval
+    *   <br>
+    *   output: output (text by default, binary or none), dataDirectory, 
+    *   dataFile, binaryFile, checkpointHarvests, checkpointFile, resume. Only
+    *   binary output is cut back to the checkpoint on resume, text output 
+    *   keeps the times written after it.
+    * 
+    * @param config - run configuration
+    */
+    public void configure(RunConfig config){
+        // device and launch shape
+        setNumOfSystems(config.getInt("systems", NumOfSystems));
+        GlobalWorkSize = config.getInt("globalWorkSize", GlobalWorkSize);
+        LocalWorkSize = config.getInt("localWorkSize", LocalWorkSize);
+        EventCapacity = config.getInt("eventCapacity", EventCapacity);
+        DeviceType = config.getString("device", DeviceType);
+        DeviceIndex = config.getInt("deviceIndex", DeviceIndex);
+        OutOfOrderQueue = config.getBoolean("outOfOrderQueue", OutOfOrderQueue);
+        ReactionsPerLaunch = config.getInt("reactionsPerLaunch", ReactionsPerLaunch);
+        TimeHorizon = config.getFloat("timeHorizon", TimeHorizon);
+        GenerateKernel = config.getBoolean("generateKernel", GenerateKernel);
+        KernelCache = config.getString("kernelCache", KernelCache);
+        KernelDirectory = config.getString("kernelDirectory", KernelDirectory);
+        BuildOptions = config.getString("buildOptions", BuildOptions);
+        
+        // model, in the sysparams layout
+        float[] p = config.getToggleParams(new float[]{alpha1, alpha2, tau1, tau2, n1, n2,
+            kappa1, kappa2, p1initial, p2initial});
+        alpha1 = p[0];
+        alpha2 = p[1];
+        tau1 = p[2];
+        tau2 = p[3];
+        n1 = p[4];
+        n2 = p[5];
+        kappa1 = p[6];
+        kappa2 = p[7];
+        p1initial = (int) p[8];
+        p2initial = (int) p[9];
+        
+        // run length and measurement
+        Seed = config.getLong("seed", Seed);
+        MaxSteps = config.getInt("maxSteps", MaxSteps);
+        CheckMeasureTime = config.getInt("checkMeasureTime", CheckMeasureTime);
+        takeData = config.getBoolean("takeData", takeData);
+        findAverage = config.getBoolean("findAverage", findAverage);
+        profileTime = config.getBoolean("profileTime", profileTime);
+        TrackStatistics = config.getBoolean("statistics", TrackStatistics);
+        ReportInterval = config.getInt("reportInterval", ReportInterval);
+        
+        // output sink
+        String output = config.getOutput(!RawOutput ? "none" : (BinaryOutput ? "binary" : "text"));
+        RawOutput = !output.equals("none");
+        BinaryOutput = output.equals("binary");
+        dataDirectory = config.getDirectory("dataDirectory", dataDirectory);
+        dataFilename = config.getString("dataFile", dataFilename);
+        binaryFilename = config.getString("binaryFile", binaryFilename);
+        
+        // checkpoints
+        CheckpointHarvests = config.getInt("checkpointHarvests", CheckpointHarvests);
+        checkpointFilename = config.getString("checkpointFile", checkpointFilename);
+        ResumeFile = config.getString("resume", ResumeFile);
+        
+        config.checkUnused();
+    }
+    
+    public void setDeviceType(String type){
+        DeviceType = type;
+    }
+    
+    public void setReactionsPerLaunch(int n){
+        ReactionsPerLaunch = n;
+    }
+    
+    public void setTakeData(boolean take){
+        takeData = take;
+    }
+    
+    public void setFindAverage(boolean find){
+        findAverage = find;
+    }
+    
+    public int getNumOfSystems(){
+        return NumOfSystems;
+    }
+    
+    /**
+    *       setNetwork sets a reaction network to run, call before initialize.
+    *   A kernel is generated for it, or the table driven kernel is used when
+    *   GenerateKernel is false. Without one the hard coded toggle switch kernels
+    *   are used.
+    */
+    public void setNetwork(ReactionNetwork net){
+        Network = net;
+    }
+    
+    /**
+    *       setSweep sets a grid of parameter sets over the sysparams layout, 
+    *   call before initialize. Systems are spread evenly over the sets. Used by
+    *   the toggle switch kernels, networks have their constants compiled in.
+    */
+    public void setSweep(ParameterSweep sweep){
+        Sweep = sweep;
+    }
+    
+    /**
+    *       setCheckpointHarvests sets the harvests between checkpoints, 0 turns
+    *   checkpoints off.
+    */
+    public void setCheckpointHarvests(int n){
+        CheckpointHarvests = n;
+    }
+    
+    /**
+    *       setResumeFile makes initialize continue the run saved in a 
+    *   checkpoint. The kernel, number of systems and parameters have to match
+    *   the checkpointed run.
+    * 
+    * @param filename - checkpoint file
+    */
+    public void setResumeFile(String filename){
+        ResumeFile = filename;
+    }
+    
+    public int getReactionsPerLaunch(){
+        return ReactionsPerLaunch;
     }
     
     public void doOneStep(){
         MCsteps++;
         
-        // set seeds
-        clHandler.createIntArg(RNGKernelName, 0, Math.abs(2*ran.nextInt()));
-        clHandler.createIntArg(RNGKernelName, 1, Math.abs(2*ran.nextInt()));
-        clHandler.setKernelArg(RNGKernelName, true); 
-        clHandler.runKernel(RNGKernelName,GlobalWorkSize,LocalWorkSize);
-        clHandler.getFloatBufferAsArray(RNGKernelName, 0, 1, false);
- 
-        clHandler.getFloatBufferAsArray(gillespieKernelName, 0, 1, false);
+        if(ReactionsPerLaunch > 1){
+            launchStep(stepPipeline);
+            // keep the measurement interval in reactions the same
+            int checkLaunches = Math.max(1, CheckMeasureTime/ReactionsPerLaunch);
+            if((MCsteps % 1000)==0){
+                System.out.println("MC Step: "+(long)MCsteps*ReactionsPerLaunch);
+            }
+            if((MCsteps % checkLaunches)==0){
+                checkMeasurements();
+            }
+            return;
+        }
+        
+        // rng state advances on the device, no reseeding.
+        // gillespie step waits on the rng event
+        launchStep(stepPipeline);
         
         /*if((MCsteps % 10)==0){
             System.out.println("-----------------------------------");
@@ -144,14 +960,6 @@ public class GillespieSwitchSim {
             //System.out.println("Mersenne Seed 2: "+clHandler.getIntArg(RNGKernelName, 1));
         }*/
         
-        
-        clHandler.setKernelArg(gillespieKernelName, true);
-        clHandler.runKernel(gillespieKernelName,GlobalWorkSize,LocalWorkSize);
-        clHandler.getIntBufferAsArray(gillespieKernelName, 0, 1, false);
-        clHandler.getIntBufferAsArray(gillespieKernelName, 1, 1, false);
-        clHandler.getFloatBufferAsArray(gillespieKernelName, 0, 1, false);
-        clHandler.getFloatBufferAsArray(gillespieKernelName, 3, 1, false);
-        
         /*
         int[] push;int p1;int p2;
         if((MCsteps % 10)==0){
@@ -173,20 +981,76 @@ public class GillespieSwitchSim {
         }
         if((MCsteps % CheckMeasureTime)==0){
             checkMeasurements();
-            // clear data
-            clHandler.getFloatBufferAsArray(gillespieKernelName, 3, 1, false);
-            clHandler.getFloatBufferAsArray(fillFlKernelName, 0, 1, false);
-            clHandler.setKernelArg(fillFlKernelName, true);
-            clHandler.runKernel(fillFlKernelName,GlobalWorkSize,LocalWorkSize);
-            clHandler.getFloatBufferAsArray(fillFlKernelName, 0, 1, false);
-            clHandler.getFloatBufferAsArray(gillespieKernelName, 3, 1, false);
         }
     }
     
+    /**
+    *       harvestSwitchTimes swaps the event buffers without stopping the
+    *   steps. Only the event count is read after the step in flight, the writer
+    *   thread then reads the valid prefix of the events, resets the count and
+    *   saves the times.
+    */
+    private void harvestSwitchTimes(){
+        // previous harvest must be written and its count reset before reuse
+        waitForWriter();
+        
+        pendingRead = clHandler.readIntBufferAsync(stepKernelName, eventCountArg,
+                harvestCount, 1, lastStep);
+        
+        // steps from now on append to the other set of event buffers
+        clHandler.swapIntBufferAcrossKernel(stepKernelName, eventCountArg, harvestBufferName, 0);
+        clHandler.swapIntBufferAcrossKernel(stepKernelName, eventCountArg+1, harvestBufferName, 1);
+        clHandler.swapFlBufferAcrossKernel(stepKernelName, eventTimeArg, harvestBufferName, 0);
+        clHandler.setKernelArg(stepKernelName, true);
+        
+        writerTask = writerPool.submit(writeHarvestTask);
+    }
+    
+    /**
+    *       writeHarvest is run by the writer thread. It reads the valid prefix
+    *   of the harvested events into the reused host arrays, resets the count and
+    *   passes the batch on.
+    */
+    private void writeHarvest(){
+        pendingRead.get();
+        int nEvents = harvestCount[0];
+        if(nEvents > EventCapacity){
+            System.err.println("Event buffer full, dropped "+(nEvents-EventCapacity)+" switch events.");
+            nEvents = EventCapacity;
+        }
+        
+        // transfer only the valid prefix then reset the count
+        clHandler.readIntBuffer(harvestBufferName, 1, harvestInfo, nEvents*2);
+        clHandler.readFloatBuffer(harvestBufferName, 0, harvestTimes, nEvents);
+        harvestCount[0] = 0;
+        clHandler.writeIntBuffer(harvestBufferName, 0, harvestCount);
+        
+        dataSink.addEvents(harvestTimes, harvestInfo, nEvents);
+        if(RawOutput && !BinaryOutput){
+            saveData(harvestTimes, nEvents);
+        }
+        reportStatistics();
+    }
+    
+    /**
+    *       waitForWriter blocks until the last harvest has been saved.
+    */
+    private void waitForWriter(){
+        if(writerTask == null){return;}
+        try {
+            writerTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        writerTask = null;
+    }
+    
     public void RunSimulation(){
         
         double sum = 0;
-        for(int i = 0; i < MaxSteps;i++){
+        for(int i = MCsteps; i < MaxSteps;i++){
             long time = System.nanoTime();
             doOneStep();
             if(profileTime){time = System.nanoTime()-time;
@@ -198,16 +1062,50 @@ public class GillespieSwitchSim {
             }
             }
         }
+        finishSimulation();
+    }
     
+    /**
+    *       finishSimulation waits for the device and the writer thread then
+    *   closes the outputs.
+    */
+    public void finishSimulation(){
+        waitForSteps();
+        waitForWriter();
+        waitForCheckpoint();
+        writerPool.shutdown();
+        if(dataSink != null){dataSink.close();}
+        if(statistics != null){System.out.println(statistics.report());}
+        if(sweepStatistics != null){printSweepReport();}
+        clHandler.finish();
     }
     
-    public void saveData(LinkedList<Double> data){
-                int size = data.size();
+    /**
+    *       printSweepReport prints the parameters and switch time statistics of
+    *   every set of the sweep.
+    */
+    private void printSweepReport(){
+        for(int i = 0;i < Sweep.getNumSets();i++){
+            float[] set = Sweep.getSet(i);
+            StringBuilder sb = new StringBuilder("Set "+i+" :");
+            for(int j = 0;j < set.length;j++){sb.append(" ").append(set[j]);}
+            System.out.println(sb.toString());
+            System.out.println("    "+sweepStatistics.getStatistics(i).report());
+        }
+    }
+    
+    /**
+    *       saveData appends the first n switch times to the text data file.
+    * 
+    * @param data - switch times
+    * @param n - number of times to save
+    */
+    public void saveData(float[] data, int n){
         try {
-            PrintStream out = new PrintStream(new FileOutputStream(
-                dataDirectory+dataFilename,true));
-            for (int i = 0; i < (size); i++){
-                    out.println(data.remove());
+            PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(
+                dataDirectory+dataFilename,true)));
+            for (int i = 0; i < n; i++){
+                    out.println(data[i]);
             }
             out.println();
             out.close();
@@ -217,37 +1115,51 @@ public class GillespieSwitchSim {
     
     }
     
+    /**
+    *       getSeedSystemsArray makes the initial xorshift128 state, 4 words per
+    *   system. Words come from the master generator and no system state may 
+    *   be all zero.
+    */
     private int[] getSeedSystemsArray(){
-        int[] seeds = new int[NumOfSystems*2];
+        int[] seeds = new int[NumOfSystems*4];
         for(int i=0;i<seeds.length;i++){
-        seeds[i] = (int)(274252423*Math.random());}
+        seeds[i] = ran.nextInt();}
+        for(int i=0;i<NumOfSystems;i++){
+            if((seeds[i*4]|seeds[i*4+1]|seeds[i*4+2]|seeds[i*4+3])==0){seeds[i*4]=1;}
+        }
         return seeds;
     }
     private void checkMeasurements(){
         if(findAverage){
+            waitForSteps();
             System.out.println("Average p1 : "+averageP1(1000));
         }
         
+        checkHillTable();
+        
         if(takeData){
-        //System.out.println("Get buffer.");
-        float[] switchTimes = clHandler.getFloatBufferAsArray(gillespieKernelName, 3, NumOfSystems,false);
-        LinkedList<Double> data = new LinkedList<Double>(); 
-        //System.out.println("Obtaining data.");        
-        for(int i = 0;i<switchTimes.length;i++){
-            if(switchTimes[i]>0.0){data.push(((double)switchTimes[i]));}
+        harvestSwitchTimes();}
+        
+        nChecks++;
+        if(CheckpointHarvests > 0 && (nChecks % CheckpointHarvests)==0){
+            checkpoint();
         }
-        //System.out.println("Saving.");
-        saveData(data);}
     }
     
     public double averageP1(int navg){
-        int[] p1 = clHandler.getIntBufferAsArray(gillespieKernelName, 0, navg,false);
-        LinkedList<Double> data = new LinkedList<Double>(); 
+        navg = Math.min(navg, NumOfSystems);
+        // network state interleaves the species of a system
+        int stride = (Network != null) ? Network.getNumSpecies() : 1;
+        if(averageBuffer == null || averageBuffer.length < navg*stride){averageBuffer = new int[navg*stride];}
+        // a checkpoint read may still be copying out of the same host buffer
+        waitForCheckpoint();
+        // read only the prefix being averaged into the reused array
+        clHandler.readIntBuffer(stepKernelName, 0, averageBuffer, navg*stride);
         long sum =0;
-        for(int i = 0;i< p1.length;i++){
-            sum = sum + p1[i];
+        for(int i = 0;i< navg;i++){
+            sum = sum + averageBuffer[i*stride];
         } 
-        double avg = ((double)sum)/((double) p1.length);
+        double avg = ((double)sum)/((double) navg);
         return avg;
     }
     
@@ -283,6 +1195,7 @@ public class GillespieSwitchSim {
     
     public static void main(String[] args) throws IOException {
         GillespieSwitchSim sim = new GillespieSwitchSim();
+        sim.configure(RunConfig.parse(args));
         sim.initialize();
         sim.RunSimulation();
     }
@@ -4,13 +4,32 @@ package Experimental;
  * @(#)  GillespieSwitchSim
  */
 
+import Engines.DirectMethodEngine;
+import Engines.NextReactionEngine;
+import Engines.StochasticEngine;
+import Engines.TauLeapEngine;
+import Engines.WeightedEnsemble;
 import GPUBackend.OpenCLHandler;
+import Measurement.BinarySwitchTimeWriter;
+import Measurement.FirstPassageStatistics;
+import Measurement.MultiSwitchTimeSink;
+import Measurement.SwitchTimeSink;
+import Models.ReactionNetwork;
+import Models.ToggleSwitchModel;
+import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 
 /**
@@ -39,18 +58,55 @@ public class GillespieSwitchSimRegular {
     private int MCsteps = 0;
     private int CheckMeasureTime = 100;
     private int MaxSteps = 10000000;
-    private String dataDirectory = "/home/j2/Classwork/Data/";
+    private String dataDirectory = "./";
     private String dataFilename =  "gillespieSwitchRegData.txt";
     private boolean findAverage =true;
     private boolean takeData=false;
     private boolean showRates=false;
     private Random ran;
-    private int[] p1;
-    private int[] p2;
+    private ReactionNetwork Network;
+    private int nSpecies;
+    private int[] state;
+    private String EngineName = "direct";
+    private StochasticEngine engine;
+    private double LeapEpsilon = 0.15;
+    private long reactionCount = 0;
+    private float[] EnsembleEdges;
+    private int WalkersPerBin = 16;
+    private double EnsembleTau = 1.0;
+    private WeightedEnsemble Ensemble;
     private float[] time;
     private float[] tMeasured;
     private float[] SysParameters;
     private boolean profileTime = false;
+    private int NumOfThreads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService workerPool;
+    private ArrayList<Callable<Long>> stepTasks;
+    // engine steps every worker task runs, set before the tasks are submitted
+    private int stepsPerTask = 1;
+    private long Seed = System.nanoTime();
+    private boolean BinaryOutput = false;
+    private String binaryFilename = "gillespieSwitchRegData.gsw";
+    private SwitchTimeSink dataSink;
+    private BinarySwitchTimeWriter binaryWriter;
+    private ArrayList<Random> workerRandoms;
+    private int CheckpointHarvests = 200;
+    private String checkpointFilename = "gillespieSwitchReg.ckpt";
+    private String ResumeFile;
+    private SimulationCheckpoint resumed;
+    private ExecutorService checkpointPool;
+    private Future<?> checkpointTask;
+    private int[] stateSnapshot;
+    private float[] timeSnapshot;
+    // firing times of the next reaction engine, null for other engines
+    private double[] firingSnapshot;
+    private float[] eventTimes;
+    private int[] eventInfo;
+    private boolean RawOutput = true;
+    private boolean TrackStatistics = true;
+    private int ReportInterval = 100;
+    private FirstPassageStatistics statistics;
+    private int nHarvests = 0;
     
     public void initialize(){
     
@@ -66,33 +122,506 @@ public class GillespieSwitchSimRegular {
         sysparams[8] = (float) p1initial;
         
         SysParameters = sysparams;
+        
+        if(ResumeFile != null){
+            try {
+                resumed = SimulationCheckpoint.read(ResumeFile);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read checkpoint "+ResumeFile, e);
+            }
+            resumed.check("jvm-"+EngineName, NumOfSystems);
+            Seed = resumed.getSeed();
+        }
+        
+        // the toggle switch unless another network was given
+        if(Network == null){
+            Network = ToggleSwitchModel.create(alpha1, alpha2, tau1, tau2, n1, n2,
+                    kappa1, kappa2, p1initial, p2initial);
+        }
+        nSpecies = Network.getNumSpecies();
     
-        p1 = new int[NumOfSystems];
-        p2 = new int[NumOfSystems];
+        state = new int[NumOfSystems*nSpecies];
         time = new float[NumOfSystems];
         tMeasured = new float[NumOfSystems];
         
         for (int i=0;i<NumOfSystems;i++){
-            p1[i]=p1initial;
-            p2[i]=p2initial;
+            Network.reset(state, i*nSpecies);
             time[i] = 0.0f;
             tMeasured[i] = 0.0f;
         }
+        if(resumed != null){
+            System.arraycopy(resumed.getInts(0), 0, state, 0, state.length);
+            System.arraycopy(resumed.getFloats(0), 0, time, 0, time.length);
+        }
         
 
-        ran = new Random();
+        ran = new Random(Seed);
+        engine = createEngine(EngineName);
+        engine.initialize(ran);
+        if(resumed != null && engine instanceof NextReactionEngine){
+            // the drawn firing times are replaced by those of the checkpoint
+            if(resumed.getNumDoubles() > 0){
+                ((NextReactionEngine) engine).setFiringTimes(resumed.getDoubles(0));
+            }else{
+                System.out.println("Checkpoint has no firing times, resuming with fresh ones.");
+            }
+        }
+        System.out.println("Using "+engine.getName()+" engine.");
+        
+        if(takeData){
+            MultiSwitchTimeSink sinks = new MultiSwitchTimeSink();
+            if(TrackStatistics){
+                statistics = new FirstPassageStatistics();
+                sinks.add(statistics);
+            }
+            if(RawOutput && BinaryOutput){
+                try {
+                    if(resumed != null && resumed.getEventPosition() >= 0){
+                        // cut events written after the checkpoint, then count the rest again
+                        binaryWriter = new BinarySwitchTimeWriter(dataDirectory+binaryFilename,
+                                resumed.getEventPosition(), resumed.getEventCount());
+                        if(statistics != null){
+                            SimulationCheckpoint.replayEvents(dataDirectory+binaryFilename, statistics);
+                        }
+                    }else{
+                        binaryWriter = new BinarySwitchTimeWriter(dataDirectory+binaryFilename, sysparams, Seed, NumOfSystems);
+                    }
+                    sinks.add(binaryWriter);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            dataSink = sinks;
+        }
+        // reused by every harvest
+        eventTimes = new float[NumOfSystems];
+        eventInfo = new int[NumOfSystems*2];
+        
+        if(EnsembleEdges != null){
+            if(resumed != null){
+                throw new IllegalArgumentException("Weighted ensemble runs are not checkpointed.");
+            }
+            // rare event mode, the systems array holds weighted walkers
+            Ensemble = new WeightedEnsemble(Network, state, EnsembleEdges, WalkersPerBin, EnsembleTau);
+            // bin the toggle switch on p2-p1
+            int p1 = Network.getSpeciesIndex("p1");
+            if(p1 >= 0 && p1 != Network.getSwitchSpecies()){
+                Ensemble.setOrderParameter(Network.getSwitchSpecies(), p1);
+            }
+            Ensemble.initialize();
+            System.out.println("Weighted ensemble of "+(EnsembleEdges.length+1)+" bins.");
+            return;
+        }
+        
+        initializeWorkers();
+        
+        if(resumed != null){
+            reseed(resumed.getSeeds()[0]);
+            MCsteps = (int) resumed.getSteps();
+            reactionCount = resumed.getReactions();
+            System.out.println("Resumed "+ResumeFile+" at step "+MCsteps+" with "
+                    +resumed.getEventCount()+" switch times.");
+        }
+    }
+    
+    /**
+    *       reseed restarts the master and worker random number streams from a
+    *   seed. Checkpoints reseed and save the firing times of the next reaction
+    *   engine, so a resumed run draws the same numbers as one never stopped
+    *   with the same threads.
+    * 
+    * @param s - seed
+    */
+    private void reseed(long s){
+        ran.setSeed(s);
+        if(workerRandoms == null){return;}
+        for(int w = 0;w < workerRandoms.size();w++){
+            workerRandoms.get(w).setSeed(ran.nextLong());
+        }
+    }
+    
+    /**
+    *       checkpoint copies the state into reused snapshot arrays and writes 
+    *   them with the switch time file flushed on a background thread, so the 
+    *   steps only wait for the copy. A checkpoint waits for the last one.
+    */
+    private void checkpoint(){
+        waitForCheckpoint();
+        long s = ran.nextLong();
+        reseed(s);
+        
+        if(stateSnapshot == null){
+            stateSnapshot = new int[state.length];
+            timeSnapshot = new float[time.length];
+        }
+        System.arraycopy(state, 0, stateSnapshot, 0, state.length);
+        System.arraycopy(time, 0, timeSnapshot, 0, time.length);
+        if(engine instanceof NextReactionEngine){
+            NextReactionEngine nr = (NextReactionEngine) engine;
+            if(firingSnapshot == null){firingSnapshot = new double[nr.getNumFiringTimes()];}
+            nr.getFiringTimes(firingSnapshot);
+        }
+        
+        final SimulationCheckpoint ck = new SimulationCheckpoint("jvm-"+EngineName, NumOfSystems);
+        ck.setSteps(MCsteps);
+        ck.setReactions(reactionCount);
+        ck.setSeed(Seed);
+        ck.setSeeds(new long[]{s});
+        ck.addInts(stateSnapshot);
+        ck.addFloats(timeSnapshot);
+        if(firingSnapshot != null){ck.addDoubles(firingSnapshot);}
+        if(binaryWriter != null){
+            ck.setEventFile(binaryWriter.getPosition(), binaryWriter.getTotalEvents());
+        }
+        
+        if(checkpointPool == null){
+            checkpointPool = Executors.newSingleThreadExecutor(DAEMON_THREADS);
+        }
+        final String filename = dataDirectory+checkpointFilename;
+        checkpointTask = checkpointPool.submit(new Runnable(){
+            @Override
+            public void run(){
+                if(binaryWriter != null){binaryWriter.flush();}
+                try {
+                    ck.write(filename);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+    
+    /**
+    *       waitForCheckpoint blocks until the last checkpoint is on disk.
+    */
+    private void waitForCheckpoint(){
+        if(checkpointTask == null){return;}
+        try {
+            checkpointTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        checkpointTask = null;
+    }
+    
+    /**
+    *       DAEMON_THREADS creates daemon threads, so a run failing before
+    *   shutdownWorkers does not keep the JVM alive.
+    */
+    private static final ThreadFactory DAEMON_THREADS = new ThreadFactory(){
+        @Override
+        public Thread newThread(Runnable r){
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true);
+            return t;
+        }
+    };
+    
+    /**
+    *       initializeWorkers splits the systems into contiguous chunks and 
+    *   creates one step task per worker thread. Each worker has its own random 
+    *   number stream seeded from the master generator so no Random is shared.
+    *   A task runs stepsPerTask steps of its chunk, so one submission covers 
+    *   many reactions.
+    */
+    private void initializeWorkers(){
+        if(NumOfThreads < 2 || NumOfSystems < 2){return;}
+        
+        int nWorkers = Math.min(NumOfThreads, NumOfSystems);
+        int chunk = NumOfSystems/nWorkers;
+        int extra = NumOfSystems%nWorkers;
+        
+        workerPool = Executors.newFixedThreadPool(nWorkers, DAEMON_THREADS);
+        stepTasks = new ArrayList<Callable<Long>>();
+        workerRandoms = new ArrayList<Random>();
+        
+        int start = 0;
+        for(int w = 0;w < nWorkers;w++){
+            // spread the remainder over the first workers
+            final int s0 = start;
+            final int s1 = start+chunk+((w < extra) ? 1 : 0);
+            final Random workerRan = new Random(ran.nextLong());
+            workerRandoms.add(workerRan);
+            stepTasks.add(new Callable<Long>(){
+                @Override
+                public Long call(){
+                    long fired = 0;
+                    for(int k = 0;k < stepsPerTask;k++){
+                        fired += engine.step(s0, s1, workerRan);
+                    }
+                    return fired;
+                }
+            });
+            start = s1;
+        }
+        System.out.println("Using "+nWorkers+" worker threads.");
+    }
+    
+    /**
+    *       createEngine creates the engine stepping the systems.
+    * 
+    * @param name - direct, next-reaction or tau-leap
+    */
+    private StochasticEngine createEngine(String name){
+        switch(name){
+            case "direct":
+                return new DirectMethodEngine(Network, state, time, tMeasured);
+            case "next-reaction":
+                return new NextReactionEngine(Network, state, time, tMeasured);
+            case "tau-leap":
+                TauLeapEngine leap = new TauLeapEngine(Network, state, time, tMeasured);
+                leap.setEpsilon(LeapEpsilon);
+                return leap;
+            default:
+                throw new IllegalArgumentException("Unknown engine "+name);
+        }
+    }
+    
+    /**
+    *       shutdownWorkers stops the worker threads if any were started.
+    */
+    public void shutdownWorkers(){
+        waitForCheckpoint();
+        if(checkpointPool != null){
+            checkpointPool.shutdown();
+            checkpointPool = null;
+        }
+        if(workerPool != null){
+            workerPool.shutdown();
+            workerPool = null;
+        }
+    }
+    
+    /**
+    *       setNumOfSystems sets the number of systems, call before initialize.
+    */
+    public void setNumOfSystems(int n){
+        NumOfSystems = n;
+    }
+    
+    /**
+    *       configure applies a run configuration, call before initialize. Keys
+    *   not set keep the defaults of the fields. The keys are
+    *   <br>
+    *   engine: systems, engine (direct, next-reaction or tau-leap), threads,
+    *   leapEpsilon, ensembleEdges (comma separated), walkersPerBin, 
+    *   ensembleTau
+    *   <br>
+    *   model: beta, alpha1, alpha2, tau1, tau2, kappa1, kappa2, n1, n2, 
+    *   p1initial, p2initial
+    *   <br>
+    *   run: seed, maxSteps, checkMeasureTime, takeData, findAverage, 
+    *   profileTime, statistics, reportInterval
+    *   <br>
+    *   output: output (text by default, binary or none), dataDirectory, 
+    *   dataFile, binaryFile, checkpointHarvests, checkpointFile, resume. Only
+    *   binary output is cut back to the checkpoint on resume, text output 
+    *   keeps the times written after it.
+    * 
+    * @param config - run configuration
+    */
+    public void configure(RunConfig config){
+        // engine and threads
+        NumOfSystems = config.getInt("systems", NumOfSystems);
+        EngineName = config.getString("engine", EngineName);
+        NumOfThreads = config.getInt("threads", NumOfThreads);
+        LeapEpsilon = config.getDouble("leapEpsilon", LeapEpsilon);
+        EnsembleEdges = config.getFloats("ensembleEdges", EnsembleEdges);
+        WalkersPerBin = config.getInt("walkersPerBin", WalkersPerBin);
+        EnsembleTau = config.getDouble("ensembleTau", EnsembleTau);
+        
+        // model, in the sysparams layout
+        float[] p = config.getToggleParams(new float[]{alpha1, alpha2, tau1, tau2, n1, n2,
+            kappa1, kappa2, p1initial, p2initial});
+        alpha1 = p[0];
+        alpha2 = p[1];
+        tau1 = p[2];
+        tau2 = p[3];
+        n1 = p[4];
+        n2 = p[5];
+        kappa1 = p[6];
+        kappa2 = p[7];
+        p1initial = (int) p[8];
+        p2initial = (int) p[9];
+        
+        // run length and measurement
+        Seed = config.getLong("seed", Seed);
+        MaxSteps = config.getInt("maxSteps", MaxSteps);
+        CheckMeasureTime = config.getInt("checkMeasureTime", CheckMeasureTime);
+        takeData = config.getBoolean("takeData", takeData);
+        findAverage = config.getBoolean("findAverage", findAverage);
+        profileTime = config.getBoolean("profileTime", profileTime);
+        TrackStatistics = config.getBoolean("statistics", TrackStatistics);
+        ReportInterval = config.getInt("reportInterval", ReportInterval);
+        
+        // output sink
+        String output = config.getOutput(!RawOutput ? "none" : (BinaryOutput ? "binary" : "text"));
+        RawOutput = !output.equals("none");
+        BinaryOutput = output.equals("binary");
+        dataDirectory = config.getDirectory("dataDirectory", dataDirectory);
+        dataFilename = config.getString("dataFile", dataFilename);
+        binaryFilename = config.getString("binaryFile", binaryFilename);
         
+        // checkpoints
+        CheckpointHarvests = config.getInt("checkpointHarvests", CheckpointHarvests);
+        checkpointFilename = config.getString("checkpointFile", checkpointFilename);
+        ResumeFile = config.getString("resume", ResumeFile);
+        
+        config.checkUnused();
+    }
+    
+    public void setTakeData(boolean take){
+        takeData = take;
+    }
+    
+    public void setFindAverage(boolean find){
+        findAverage = find;
+    }
+    
+    /**
+    *       setEngine sets the engine by name, direct, next-reaction or 
+    *   tau-leap, call before initialize.
+    */
+    public void setEngine(String name){
+        EngineName = name;
+    }
+    
+    /**
+    *       setLeapEpsilon sets the error control of the tau-leap engine, call 
+    *   before initialize.
+    */
+    public void setLeapEpsilon(double eps){
+        LeapEpsilon = eps;
+    }
+    
+    /**
+    *       setWeightedEnsemble turns on the rare event mode, call before 
+    *   initialize. Every step is then a weighted ensemble iteration over the 
+    *   systems array binned on p2-p1 for the toggle switch, or on the switch 
+    *   species for other networks, and the switching rate is reported instead
+    *   of switch times.
+    * 
+    * @param edges - increasing bin edges
+    * @param perBin - walkers per occupied bin
+    * @param tau - time between resamplings
+    */
+    public void setWeightedEnsemble(float[] edges, int perBin, double tau){
+        EnsembleEdges = edges;
+        WalkersPerBin = perBin;
+        EnsembleTau = tau;
+    }
+    
+    /**
+    *       setCheckpointHarvests sets the harvests between checkpoints, 0 turns
+    *   checkpoints off.
+    */
+    public void setCheckpointHarvests(int n){
+        CheckpointHarvests = n;
+    }
+    
+    /**
+    *       setResumeFile makes initialize continue the run saved in a 
+    *   checkpoint. The engine, number of systems and network have to match the
+    *   checkpointed run.
+    * 
+    * @param filename - checkpoint file
+    */
+    public void setResumeFile(String filename){
+        ResumeFile = filename;
+    }
+    
+    /**
+    *       setSeed sets the seed of the master random number stream, call 
+    *   before initialize.
+    */
+    public void setSeed(long s){
+        Seed = s;
+    }
+    
+    public void setDataDirectory(String dir){
+        dataDirectory = dir;
+    }
+    
+    public int getMCsteps(){
+        return MCsteps;
+    }
+    
+    public WeightedEnsemble getEnsemble(){
+        return Ensemble;
+    }
+    
+    /**
+    *       setRawOutput turns writing the switch times to file on or off, call 
+    *   before initialize.
+    */
+    public void setRawOutput(boolean raw){
+        RawOutput = raw;
     }
     
+    /**
+    *       setCheckMeasureTime sets the steps between harvests. A system that 
+    *   switches twice between harvests only reports the last time, so engines 
+    *   taking long steps need a short interval.
+    */
+    public void setCheckMeasureTime(int steps){
+        CheckMeasureTime = steps;
+    }
+    
+    /**
+    *       getStatistics gives the switch time statistics, null unless data is 
+    *   taken with statistics tracked.
+    */
+    public FirstPassageStatistics getStatistics(){
+        return statistics;
+    }
+    
+    /**
+    *       getReactionCount gives the reactions fired by all systems so far.
+    */
+    public long getReactionCount(){
+        return reactionCount;
+    }
+    
+    public int getNumOfSystems(){
+        return NumOfSystems;
+    }
+    
+    /**
+    *       setNetwork sets the reaction network to simulate, call before 
+    *   initialize. The toggle switch from the parameter fields is used if none
+    *   is set.
+    */
+    public void setNetwork(ReactionNetwork net){
+        Network = net;
+    }
+    
+    /**
+    *       doOneStep runs every system up to the next harvest, CheckMeasureTime
+    *   steps or fewer at the end of the run, then harvests. In rare event mode
+    *   it runs one weighted ensemble iteration.
+    */
     public void doOneStep(){
-        MCsteps++;
-        doGillespieStep(SysParameters);
+        if(Ensemble != null){
+            MCsteps++;
+            Ensemble.iterate(ran);
+            if((MCsteps % ReportInterval)==0){
+                System.out.println(Ensemble.report());
+            }
+            return;
+        }
+        int n = CheckMeasureTime-(MCsteps % CheckMeasureTime);
+        if(MaxSteps > MCsteps){n = Math.min(n, MaxSteps-MCsteps);}
+        doGillespieSteps(n);
+        int before = MCsteps;
+        MCsteps += n;
         
         // testing r values
         if(showRates){
-        printRvalues(p1[0], p2[0]);}
+        printRates(0);}
         
-        if((MCsteps % 10000)==0){
+        if((MCsteps/10000) != (before/10000)){
             System.out.println("MC Step: "+MCsteps);
         }
         if((MCsteps % CheckMeasureTime)==0){
@@ -101,90 +630,105 @@ public class GillespieSwitchSimRegular {
             for(int i =0;i < NumOfSystems;i++){
                 tMeasured[i]=0.0f;
             }
+            if(CheckpointHarvests > 0 && ((MCsteps/CheckMeasureTime) % CheckpointHarvests)==0){
+                checkpoint();
+            }
         }
     }
     
     public void RunSimulation(){
         double sum=0;
-        for(int i = 0; i < MaxSteps;i++){
+        for(int i = 0; MCsteps < MaxSteps;i++){
             long time = System.nanoTime();
             doOneStep();
             if(profileTime){time = System.nanoTime()-time;
             sum = time/1000000+sum;
-            System.out.println("Time for step: "+(time/1000000)+" ms");
+            System.out.println("Time for harvest: "+(time/1000000)+" ms");
             if((i%10)==0){
-            System.out.println("AVG Time for step: "+(sum/10.0)+" ms");
+            System.out.println("AVG Time for harvest: "+(sum/10.0)+" ms");
             sum =0;
             }
             }
         }
+        shutdownWorkers();
+        if(dataSink != null){dataSink.close();}
+        if(statistics != null){System.out.println(statistics.report());}
+        if(Ensemble != null){System.out.println(Ensemble.report());}
+    }
     
+    /**
+    *       doGillespieStep does one engine step for every system.
+    * 
+    * @return reactions fired
+    */
+    public long doGillespieStep(){
+        return doGillespieSteps(1);
     }
     
-    private void doGillespieStep(float[] sysParam){
+    /**
+    *       doGillespieSteps does n engine steps for every system. The systems 
+    *   are independent so the work is split across the worker pool if there is
+    *   one, each worker running all n steps of its chunk in one task.
+    * 
+    * @param n - steps per system
+    * @return reactions fired
+    */
+    public long doGillespieSteps(int n){
+        long fired = 0;
+        if(workerPool == null){
+            for(int k = 0;k < n;k++){
+                fired += engine.step(0, NumOfSystems, ran);
+            }
+            reactionCount += fired;
+            return fired;
+        }
         
-    for(int currSys=0;currSys<this.NumOfSystems;currSys++){    
-    // get parameters
-    int nparams = 9;
-    float alpha1 =  sysParam[0];
-    float alpha2 = sysParam[1];
-    float tau1 = sysParam[2];
-    float tau2 = sysParam[3];
-    float n1 = sysParam[4];
-    float n2 = sysParam[5];
-    float kappa1 = sysParam[6];
-    float kappa2 = sysParam[7];
-
-    // Calculate R ? Does this happen before time update
-    float rtemp = 0.0f;
-    
-        // birth
-        rtemp = (float) (rtemp+ alpha1/(1+Math.pow(p2[currSys]/kappa2,n1))); 
-        rtemp = (float) (rtemp+ alpha2/(1+Math.pow(p1[currSys]/kappa1,n2)));
-    
-        // death 
-        rtemp = rtemp+ p1[currSys]/tau1; 
-        rtemp = rtemp+ p2[currSys]/tau2;
+        stepsPerTask = n;
+        try {
+            List<Future<Long>> done = workerPool.invokeAll(stepTasks);
+            for(int i = 0;i < done.size();i++){
+                fired += done.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        reactionCount += fired;
+        return fired;
+    }
     
-        float rCurr = rtemp;
-
-        float r1 = (float) ((alpha1/(1+Math.pow(p2[currSys]/kappa2,n1)))/rCurr);
-        float r2 = (float) (r1+((alpha2/(1+Math.pow(p1[currSys]/kappa1,n2)))/rCurr));
-        float r3 = r2+((p1[currSys]/tau1)/rCurr);
-
-    // update time
-    time[currSys] = (float) (time[currSys]-1.0*Math.log(ran.nextFloat())/rCurr);
-
-    float ran2 =ran.nextFloat();
-    // Determine process to update
-        if(ran2 < r1){
-            p1[currSys] = p1[currSys]+1;
-        }else if(r1 < ran2  && ran2 < r2){
-            p2[currSys] = p2[currSys]+1;
-        }else if(r2 < ran2  && ran2 < r3){
-            p1[currSys] = p1[currSys]-1;
-        }else{
-            p2[currSys] = p2[currSys]-1;
+    /**
+    *       printRates prints the share of every reaction in the total 
+    *   propensity of a system.
+    * 
+    * @param sys - system to print
+    */
+    public void printRates(int sys){
+        double[] a = new double[Network.getNumReactions()];
+        double rCurr = Network.propensities(state, sys*nSpecies, a);
+        System.out.println("****************");
+        for(int s = 0;s < nSpecies;s++){
+            System.out.println(Network.getSpeciesName(s)+": "+state[sys*nSpecies+s]);
         }
-
-
-    // Determine if transitioned
-        if(p2[currSys] > p1initial){
-            tMeasured[currSys] = time[currSys];
-            p1[currSys]=p1initial;
-            p2[currSys]=p2initial;
-            time[currSys]=0.0f;
-            }
+        for(int r = 0;r < a.length;r++){
+            System.out.println(Network.getReaction(r).getName()+": "+(a[r]/rCurr));
         }
+        System.out.println("****************");
     }
     
-    public void saveData(LinkedList<Double> data){
-                int size = data.size();
+    /**
+    *       saveData appends the first n switch times to the text data file.
+    * 
+    * @param data - switch times
+    * @param n - number of times to save
+    */
+    public void saveData(float[] data, int n){
         try {
-            PrintStream out = new PrintStream(new FileOutputStream(
-                dataDirectory+dataFilename,true));
-            for (int i = 0; i < (size); i++){
-                    out.println(data.remove());
+            PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(
+                dataDirectory+dataFilename,true)));
+            for (int i = 0; i < n; i++){
+                    out.println(data[i]);
             }
             out.println();
             out.close();
@@ -197,40 +741,59 @@ public class GillespieSwitchSimRegular {
     
     private void checkMeasurements(){
         if(findAverage){
-            System.out.println("Average p1 : "+averageP1(1000));
-            System.out.println("Average p2 : "+averageP2(1000));
-        
+            for(int sp = 0;sp < nSpecies;sp++){
+                System.out.println("Average "+Network.getSpeciesName(sp)+" : "+averageSpecies(sp));
+            }
         }
         
-        if(takeData){
-        LinkedList<Double> data = new LinkedList<Double>(); 
+        if(!takeData){return;}
+        
+        // gather the switched systems into the reused batch
+        int nEvents = 0;
         for(int i = 0;i<tMeasured.length;i++){
             if(tMeasured[i]>0){
-                data.push(((double)tMeasured[i]));
+                eventTimes[nEvents] = tMeasured[i];
+                // reactions are not counted on this path
+                eventInfo[nEvents*2] = i;
+                eventInfo[nEvents*2+1] = -1;
+                nEvents++;
             }
         }
-        saveData(data);}
+        
+        if(dataSink != null){
+            dataSink.addEvents(eventTimes, eventInfo, nEvents);
+        }
+        if(RawOutput && !BinaryOutput){
+            saveData(eventTimes, nEvents);
+        }
+        
+        nHarvests++;
+        if(statistics != null && (nHarvests % ReportInterval)==0){
+            System.out.println(statistics.report());
+        }
     }
     
-    public double averageP1(int navg){
-        LinkedList<Double> data = new LinkedList<Double>(); 
+    /**
+    *       averageSpecies gives the count of a species averaged over all systems.
+    * 
+    * @param sp - species index
+    */
+    public double averageSpecies(int sp){
         long sum =0;
-        for(int i = 0;i< p1.length;i++){
-            sum = sum + p1[i];
+        for(int i = 0;i< NumOfSystems;i++){
+            sum = sum + state[i*nSpecies+sp];
         } 
-        double avg = ((double)sum)/((double) p1.length);
+        double avg = ((double)sum)/((double) NumOfSystems);
         return avg;
     }
     
+    public double averageP1(int navg){
+        return averageSpecies(0);
+    }
+    
     
     public double averageP2(int navg){
-        LinkedList<Double> data = new LinkedList<Double>(); 
-        long sum =0;
-        for(int i = 0;i< p2.length;i++){
-            sum = sum + p2[i];
-        } 
-        double avg = ((double)sum)/((double) p2.length);
-        return avg;
+        return averageSpecies(1);
     }
     
     public void printRvalues(int p1, int p2){
@@ -267,6 +830,7 @@ public class GillespieSwitchSimRegular {
     
     public static void main(String[] args) throws IOException {
         GillespieSwitchSimRegular sim = new GillespieSwitchSimRegular();
+        sim.configure(RunConfig.parse(args));
         sim.initialize();
         sim.RunSimulation();
     }
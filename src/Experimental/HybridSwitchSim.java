@@ -0,0 +1,502 @@
+package Experimental;
+/*
+ *   @(#)   HybridSwitchSim
+ */
+
+import Engines.DirectMethodEngine;
+import GPUBackend.KernelPipeline;
+import GPUBackend.OpenCLHandler;
+import GPUBackend.PipelineFuture;
+import Measurement.BinarySwitchTimeWriter;
+import Measurement.FirstPassageStatistics;
+import Measurement.MultiSwitchTimeSink;
+import Models.ReactionNetwork;
+import Models.ToggleSwitchModel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+*      HybridSwitchSim shares one ensemble of toggle switches between JVM
+*   threads running the direct method and an OpenCL device running the
+*   gillespie_switch_multi kernel. The ensemble is cut into chunks of
+*   ChunkSize systems whose state stays on the host between units of work, so
+*   any backend can take any chunk. Every round advances every chunk by
+*   ReactionsPerUnit reactions per system: idle backends take the next chunks
+*   of the round, a JVM thread one at a time and the device a batch sized from
+*   the throughput measured so far, so both run out of work together. Every
+*   switch goes to one shared set of sinks.
+*
+*   <br>
+*   Settings: systems, chunkSize, backend (hybrid, jvm or device), threads,
+*   device, deviceIndex, localWorkSize (0 tunes it), reactionsPerUnit (a
+*   multiple of reactionsPerLaunch), reactionsPerLaunch, harvestSteps,
+*   maxRounds, reportInterval, seed, the toggle switch parameters as in
+*   GillespieSwitchSim, output (binary or none), dataDirectory and 
+*   binaryFile. With a CPU device the threads and the device share the cores,
+*   fewer threads may then be faster.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class HybridSwitchSim {
+    private static final String KERNEL = SwitchMultiKernel.NAME;
+    private String Backend = "hybrid";
+    private int NumOfSystems = 128000;
+    private int ChunkSize = 1024;
+    private int NumOfThreads = Runtime.getRuntime().availableProcessors();
+    private String DeviceType = "CPU";
+    private int DeviceIndex = -1;
+    private int LocalWorkSize = 0;
+    private int ReactionsPerUnit = 1000;
+    private int ReactionsPerLaunch = 100;
+    private int HarvestSteps = 100;
+    private int MaxRounds = 1000;
+    private int ReportInterval = 10;
+    // rounds after which a device left without work takes a chunk to measure again
+    private int ProbeRounds = 10;
+    private long Seed = System.nanoTime();
+    private float[] SysParameters = {40, 40, 4, 4, 2, 2, 4, 4, 160, 0};
+    private boolean BinaryOutput = false;
+    private String dataDirectory = "./";
+    private String binaryFilename = "gillespieSwitchHybrid.gsw";
+
+    // state of every system between units, species interleaved
+    private ReactionNetwork Network;
+    private int[] state;
+    private float[] time;
+    private float[] tMeasured;
+    private int[] rngState;
+    private DirectMethodEngine engine;
+    private int nChunks;
+    private AtomicInteger nextChunk = new AtomicInteger();
+    private volatile int round = 0;
+    private ExecutorService pool;
+    private ArrayList<Callable<Void>> roundTasks = new ArrayList<Callable<Void>>();
+    private int nJvmThreads = 0;
+    // throughput in chunks per second, of one JVM thread and of the device
+    private volatile double jvmRate = 0;
+    private volatile double deviceRate = 0;
+    private long jvmChunks = 0;
+    private long deviceChunks = 0;
+    private int lastDeviceRound = 0;
+    private MultiSwitchTimeSink sink;
+    private FirstPassageStatistics statistics;
+
+    // device, with host staging arrays for one batch
+    private OpenCLHandler clHandler;
+    private KernelPipeline pipeline;
+    private DeviceHillTable hillTable;
+    private int eventCapacity;
+    private int[] stageP1;
+    private int[] stageP2;
+    private int[] stageRng;
+    private float[] stageTime;
+    private int[] stageZeros;
+    private int[] stageInfo;
+    private float[] stageEventTimes;
+    private int[] eventCount = new int[1];
+
+    /**
+    *       configure reads the settings of the run, call before initialize.
+    *
+    * @param config - settings of the run
+    */
+    public void configure(RunConfig config){
+        NumOfSystems = config.getInt("systems", NumOfSystems);
+        ChunkSize = config.getInt("chunkSize", ChunkSize);
+        Backend = config.getString("backend", Backend);
+        NumOfThreads = config.getInt("threads", NumOfThreads);
+        DeviceType = config.getString("device", DeviceType);
+        DeviceIndex = config.getInt("deviceIndex", DeviceIndex);
+        LocalWorkSize = config.getInt("localWorkSize", LocalWorkSize);
+        ReactionsPerUnit = config.getInt("reactionsPerUnit", ReactionsPerUnit);
+        ReactionsPerLaunch = config.getInt("reactionsPerLaunch", ReactionsPerLaunch);
+        HarvestSteps = config.getInt("harvestSteps", HarvestSteps);
+        MaxRounds = config.getInt("maxRounds", MaxRounds);
+        ReportInterval = config.getInt("reportInterval", ReportInterval);
+        Seed = config.getLong("seed", Seed);
+        SysParameters = config.getToggleParams(SysParameters);
+        String output = config.getString("output", BinaryOutput ? "binary" : "none");
+        if(output.equals("binary") || output.equals("none")){
+            BinaryOutput = output.equals("binary");
+        }else{
+            throw new IllegalArgumentException("output must be binary or none, got "+output);
+        }
+        dataDirectory = config.getDirectory("dataDirectory", dataDirectory);
+        binaryFilename = config.getString("binaryFile", binaryFilename);
+        config.checkUnused();
+
+        if(!Backend.equals("hybrid") && !Backend.equals("jvm") && !Backend.equals("device")){
+            throw new IllegalArgumentException("backend must be hybrid, jvm or device, got "+Backend);
+        }
+        if(NumOfSystems <= 0 || ChunkSize <= 0 || ReactionsPerUnit <= 0 || ReactionsPerLaunch <= 0 || HarvestSteps <= 0){
+            throw new IllegalArgumentException("systems, chunkSize, reactionsPerUnit, reactionsPerLaunch and harvestSteps must be positive.");
+        }
+        // the device runs whole launches, a unit has to match the JVM
+        if(ReactionsPerUnit % ReactionsPerLaunch != 0){
+            throw new IllegalArgumentException("reactionsPerUnit "+ReactionsPerUnit
+                    +" must be a multiple of reactionsPerLaunch "+ReactionsPerLaunch);
+        }
+    }
+
+    /**
+    *       initialize sets up the host state, the sinks and the backends.
+    */
+    public void initialize(){
+        Network = ToggleSwitchModel.create(SysParameters);
+        int nSpecies = Network.getNumSpecies();
+        state = new int[NumOfSystems*nSpecies];
+        time = new float[NumOfSystems];
+        tMeasured = new float[NumOfSystems];
+        for(int i = 0;i < NumOfSystems;i++){Network.reset(state, i*nSpecies);}
+        nChunks = (NumOfSystems+ChunkSize-1)/ChunkSize;
+
+        Random ran = new Random(Seed);
+        engine = new DirectMethodEngine(Network, state, time, tMeasured);
+        engine.initialize(ran);
+
+        statistics = new FirstPassageStatistics();
+        sink = new MultiSwitchTimeSink().add(statistics);
+        if(BinaryOutput){
+            try {
+                sink.add(new BinarySwitchTimeWriter(dataDirectory+binaryFilename, SysParameters, Seed, NumOfSystems));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if(!Backend.equals("device")){
+            nJvmThreads = Math.max(1, NumOfThreads);
+            for(int w = 0;w < nJvmThreads;w++){
+                final Random workerRan = new Random(ran.nextLong());
+                final float[] times = new float[ChunkSize];
+                final int[] info = new int[2*ChunkSize];
+                roundTasks.add(new Callable<Void>(){
+                    @Override
+                    public Void call(){
+                        runJvm(workerRan, times, info);
+                        return null;
+                    }
+                });
+            }
+        }
+        if(!Backend.equals("jvm")){
+            if(initializeDevice(ran)){
+                roundTasks.add(new Callable<Void>(){
+                    @Override
+                    public Void call(){
+                        runDevice();
+                        return null;
+                    }
+                });
+            }else if(nJvmThreads == 0){
+                throw new IllegalStateException("No OpenCL device of type "+DeviceType);
+            }
+        }
+        pool = Executors.newFixedThreadPool(roundTasks.size());
+        System.out.println(NumOfSystems+" systems in "+nChunks+" chunks on "+nJvmThreads
+                +" threads"+((clHandler != null) ? " and a "+DeviceType+" device" : ""));
+    }
+
+    /**
+    *       initializeDevice sets up the multi reaction kernel for batches of up
+    *   to the whole ensemble. Without a device the run falls back to the JVM
+    *   threads in hybrid mode.
+    *
+    * @param ran - seeds of the device random numbers
+    * @return true if a device is in use
+    */
+    private boolean initializeDevice(Random ran){
+        int nDevices;
+        try {
+            nDevices = OpenCLHandler.countDevices(DeviceType);
+        } catch (RuntimeException e) {
+            // no OpenCL library
+            nDevices = 0;
+        }
+        if(nDevices == 0){
+            System.out.println("No OpenCL device of type "+DeviceType+", running on the JVM only.");
+            return false;
+        }
+        clHandler = new OpenCLHandler();
+        clHandler.initializeOpenCL(DeviceType, DeviceIndex, false);
+        clHandler.setDeviceResident(true);
+        clHandler.createKernel("", KERNEL);
+
+        int capacity = NumOfSystems;
+        // a system rarely switches twice in a unit
+        eventCapacity = 2*capacity;
+
+        // state is uploaded with every batch, every system uses parameter
+        // set 0. The Hill table grows after a batch finds counts past it
+        hillTable = SwitchMultiKernel.createBuffers(clHandler, capacity, null, null, SysParameters,
+                null, null, ReactionsPerLaunch, eventCapacity, 0.0f);
+
+        clHandler.setKernelArg(KERNEL);
+
+        pipeline = new KernelPipeline();
+        pipeline.addStage(KERNEL, capacity, LocalWorkSize);
+        if(LocalWorkSize <= 0){
+            LocalWorkSize = clHandler.getTunedLocalWorkSize(pipeline, capacity);
+        }
+
+        rngState = new int[NumOfSystems*4];
+        for(int i = 0;i < rngState.length;i++){rngState[i] = ran.nextInt();}
+        for(int i = 0;i < NumOfSystems;i++){
+            if((rngState[i*4]|rngState[i*4+1]|rngState[i*4+2]|rngState[i*4+3]) == 0){rngState[i*4] = 1;}
+        }
+        stageP1 = new int[capacity];
+        stageP2 = new int[capacity];
+        stageRng = new int[capacity*4];
+        stageTime = new float[capacity];
+        stageZeros = new int[capacity];
+        stageInfo = new int[eventCapacity*2];
+        stageEventTimes = new float[eventCapacity];
+        return true;
+    }
+
+    /**
+    *       RunSimulation runs every round, reporting throughput as it goes,
+    *   and closes the sinks.
+    */
+    public void RunSimulation(){
+        long start = System.nanoTime();
+        try {
+            for(round = 0;round < MaxRounds;round++){
+                nextChunk.set(0);
+                List<Future<Void>> done = pool.invokeAll(roundTasks);
+                for(int i = 0;i < done.size();i++){done.get(i).get();}
+                if(ReportInterval > 0 && (round+1)%ReportInterval == 0){report(round+1, start);}
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Round "+round+" failed", e.getCause());
+        } finally {
+            pool.shutdown();
+            sink.close();
+            if(clHandler != null){clHandler.closeOpenCL();}
+        }
+        report(round, start);
+        System.out.println(statistics.report());
+    }
+
+    /**
+    *       report prints the reactions per second so far and how the chunks
+    *   were shared.
+    *
+    * @param rounds - rounds done
+    * @param start - start of the run in nanoseconds
+    */
+    private void report(int rounds, long start){
+        double seconds = (System.nanoTime()-start)/1e9;
+        double reactions = (double)NumOfSystems*ReactionsPerUnit*rounds;
+        long total;
+        synchronized(this){total = jvmChunks+deviceChunks;}
+        double share = (total > 0) ? 100.0*deviceChunks/total : 0;
+        System.out.println("Round "+rounds+" : "+(float)(reactions/seconds)+" reactions per second, device ran "
+                +(float)share+"% of chunks, chunks per second "+(float)(jvmRate*nJvmThreads)
+                +" on threads and "+(float)deviceRate+" on device");
+    }
+
+    /**
+    *       claim takes the next chunks of the round.
+    *
+    * @param want - chunks wanted
+    * @return first chunk and number of chunks, null once the round is taken
+    */
+    private int[] claim(int want){
+        while(true){
+            int first = nextChunk.get();
+            if(first >= nChunks){return null;}
+            int n = Math.min(want, nChunks-first);
+            if(nextChunk.compareAndSet(first, first+n)){return new int[]{first, n};}
+        }
+    }
+
+    /**
+    *       runJvm advances chunks on this thread until the round is taken,
+    *   harvesting switches every HarvestSteps reactions.
+    *
+    * @param ran - random numbers of this thread
+    * @param times - switch times harvested, ChunkSize long
+    * @param info - (system id, reaction count) pairs harvested
+    */
+    private void runJvm(Random ran, float[] times, int[] info){
+        int[] c;
+        while((c = claim(1)) != null){
+            long start = System.nanoTime();
+            int first = c[0]*ChunkSize;
+            int end = Math.min(NumOfSystems, first+ChunkSize);
+            for(int k = 1;k <= ReactionsPerUnit;k++){
+                engine.step(first, end, ran);
+                if(k%HarvestSteps == 0 || k == ReactionsPerUnit){harvestJvm(first, end, times, info);}
+            }
+            recordJvm((System.nanoTime()-start)/1e9);
+        }
+    }
+
+    /**
+    *       harvestJvm passes the switches measured in a range to the sinks,
+    *   reaction counts are not tracked.
+    */
+    private void harvestJvm(int first, int end, float[] times, int[] info){
+        int n = 0;
+        for(int i = first;i < end;i++){
+            if(tMeasured[i] > 0){
+                times[n] = tMeasured[i];
+                info[n*2] = i;
+                info[n*2+1] = -1;
+                tMeasured[i] = 0;
+                n++;
+            }
+        }
+        if(n > 0){
+            // the sinks are shared by every thread
+            synchronized(sink){sink.addEvents(times, info, n);}
+        }
+    }
+
+    /**
+    *       runDevice advances batches of chunks on the device until the round
+    *   is taken or the share of the device is.
+    */
+    private void runDevice(){
+        int want;
+        int[] c;
+        while((want = deviceClaimSize()) > 0 && (c = claim(want)) != null){
+            long start = System.nanoTime();
+            runDeviceBatch(c[0]*ChunkSize, Math.min(NumOfSystems, (c[0]+c[1])*ChunkSize));
+            recordDevice(c[1], (System.nanoTime()-start)/1e9);
+            lastDeviceRound = round;
+        }
+    }
+
+    /**
+    *       deviceClaimSize gives the chunks the device takes next: its share of
+    *   those left in proportion to the measured throughput, so it finishes
+    *   along with the threads. Before any measurement it takes an even share.
+    */
+    private int deviceClaimSize(){
+        int left = nChunks-nextChunk.get();
+        if(left <= 0){return 0;}
+        if(nJvmThreads == 0){return left;}
+        double jvm = jvmRate*nJvmThreads;
+        if(deviceRate <= 0 || jvmRate <= 0){
+            return Math.max(1, left/(nJvmThreads+1));
+        }
+        int want = (int) Math.round(left*deviceRate/(deviceRate+jvm));
+        if(want == 0 && round-lastDeviceRound >= ProbeRounds){want = 1;}
+        return want;
+    }
+
+    /**
+    *       runDeviceBatch uploads a range of systems, runs ReactionsPerUnit
+    *   reactions per system on the device, reads the state back and passes the
+    *   switches to the sinks with ids of the whole ensemble. Reaction counts
+    *   only cover the batch and are not passed on.
+    *
+    * @param first - first system
+    * @param end - end of the range
+    */
+    private void runDeviceBatch(int first, int end){
+        int n = end-first;
+        for(int i = 0;i < n;i++){
+            stageP1[i] = state[(first+i)*2];
+            stageP2[i] = state[(first+i)*2+1];
+        }
+        System.arraycopy(time, first, stageTime, 0, n);
+        System.arraycopy(rngState, first*4, stageRng, 0, n*4);
+        eventCount[0] = 0;
+        clHandler.writeIntBuffer(KERNEL, SwitchMultiKernel.P1, stageP1, n);
+        clHandler.writeIntBuffer(KERNEL, SwitchMultiKernel.P2, stageP2, n);
+        clHandler.writeFloatBuffer(KERNEL, SwitchMultiKernel.TIME, stageTime, n);
+        clHandler.writeIntBuffer(KERNEL, SwitchMultiKernel.RNG_STATE, stageRng, n*4);
+        clHandler.writeIntBuffer(KERNEL, SwitchMultiKernel.REACTIONS, stageZeros, n);
+        clHandler.writeIntBuffer(KERNEL, SwitchMultiKernel.EVENT_COUNT, eventCount, 1);
+        clHandler.createIntArg(KERNEL, SwitchMultiKernel.NUM_ELEMENTS, n);
+        clHandler.setKernelArg(KERNEL, true);
+
+        KernelPipeline batch = pipeline.withWorkSize(OpenCLHandler.padGlobalSize(n, LocalWorkSize), LocalWorkSize);
+        int launches = ReactionsPerUnit/ReactionsPerLaunch;
+        PipelineFuture last = null;
+        for(int k = 0;k < launches;k++){
+            last = clHandler.runPipeline(batch, last);
+        }
+        last.get();
+
+        clHandler.readIntBuffer(KERNEL, SwitchMultiKernel.P1, stageP1, n);
+        clHandler.readIntBuffer(KERNEL, SwitchMultiKernel.P2, stageP2, n);
+        clHandler.readFloatBuffer(KERNEL, SwitchMultiKernel.TIME, stageTime, n);
+        clHandler.readIntBuffer(KERNEL, SwitchMultiKernel.RNG_STATE, stageRng, n*4);
+        clHandler.readIntBuffer(KERNEL, SwitchMultiKernel.EVENT_COUNT, eventCount, 1);
+        if(!hillTable.isFull()){
+            int miss = hillTable.readMiss();
+            if(hillTable.needsGrowth(miss)){hillTable.grow(miss);}
+        }
+        for(int i = 0;i < n;i++){
+            state[(first+i)*2] = stageP1[i];
+            state[(first+i)*2+1] = stageP2[i];
+        }
+        System.arraycopy(stageTime, 0, time, first, n);
+        System.arraycopy(stageRng, 0, rngState, first*4, n*4);
+
+        int nEvents = Math.min(eventCount[0], eventCapacity);
+        if(eventCount[0] > eventCapacity){
+            System.out.println("Dropped "+(eventCount[0]-eventCapacity)+" switch events, lower reactionsPerUnit.");
+        }
+        if(nEvents == 0){return;}
+        clHandler.readIntBuffer(KERNEL, SwitchMultiKernel.EVENT_INFO, stageInfo, nEvents*2);
+        clHandler.readFloatBuffer(KERNEL, SwitchMultiKernel.EVENT_TIME, stageEventTimes, nEvents);
+        for(int i = 0;i < nEvents;i++){
+            stageInfo[i*2] += first;
+            stageInfo[i*2+1] = -1;
+        }
+        synchronized(sink){sink.addEvents(stageEventTimes, stageInfo, nEvents);}
+    }
+
+    /**
+    *       recordJvm folds the time of one chunk on one thread into the JVM
+    *   throughput.
+    */
+    private synchronized void recordJvm(double seconds){
+        jvmChunks++;
+        jvmRate = blend(jvmRate, 1.0/seconds);
+    }
+
+    /**
+    *       recordDevice folds the time of one batch into the device throughput.
+    */
+    private synchronized void recordDevice(int chunks, double seconds){
+        deviceChunks += chunks;
+        deviceRate = blend(deviceRate, chunks/seconds);
+    }
+
+    /**
+    *       blend gives a running average weighting recent measurements.
+    */
+    private static double blend(double rate, double measured){
+        return (rate <= 0) ? measured : 0.7*rate+0.3*measured;
+    }
+
+    public FirstPassageStatistics getStatistics(){
+        return statistics;
+    }
+
+    public static void main(String[] args) throws IOException {
+        HybridSwitchSim sim = new HybridSwitchSim();
+        sim.configure(RunConfig.parse(args));
+        sim.initialize();
+        sim.RunSimulation();
+    }
+}
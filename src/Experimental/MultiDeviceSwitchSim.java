@@ -0,0 +1,248 @@
+package Experimental;
+/*
+ *   @(#)   MultiDeviceSwitchSim
+ */
+
+import GPUBackend.OpenCLHandler;
+import Measurement.FirstPassageStatistics;
+import Measurement.OffsetSwitchTimeSink;
+import Measurement.SwitchTimeSink;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+*      MultiDeviceSwitchSim spreads one ensemble of toggle switches over every
+*   OpenCL device of a type, one GillespieSwitchSim with its own context and
+*   queue per device driven by its own host thread. A short probe run with the
+*   ensemble split evenly measures the throughput of every device, then the
+*   ensemble is split in proportion so all devices take the same time per
+*   launch. Every part passes its harvests, with system ids of the whole
+*   ensemble, to one shared set of sinks.
+*
+*   <br>
+*   Takes the settings of GillespieSwitchSim except deviceIndex,
+*   globalWorkSize and resume, plus probeSteps, the launches of the probe run.
+*   Parts are not checkpointed. Text output is not taken, every part would 
+*   write the same file, so output has to be binary or none.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class MultiDeviceSwitchSim {
+    private RunConfig config;
+    private String DeviceType;
+    private int NumOfSystems;
+    private int ProbeSteps;
+    private boolean takeData;
+    private long Seed;
+    private GillespieSwitchSim[] sims;
+    private int[] shares;
+    private SwitchTimeSink sharedSink;
+    private FirstPassageStatistics statistics;
+
+    /**
+    *       MultiDeviceSwitchSim creates the run from a configuration.
+    *
+    * @param runConfig - settings of the run
+    */
+    public MultiDeviceSwitchSim(RunConfig runConfig){
+        config = runConfig;
+        if(config.has("resume") || config.has("deviceIndex")){
+            throw new IllegalArgumentException("Multi device runs take no resume or deviceIndex setting.");
+        }
+        config.remove("globalWorkSize");
+        DeviceType = config.getString("device", "");
+        NumOfSystems = config.getInt("systems", 128000);
+        ProbeSteps = config.getInt("probeSteps", 200);
+        takeData = config.getBoolean("takeData", true);
+        Seed = config.getLong("seed", System.nanoTime());
+        if(takeData && config.getString("output", "text").equals("text")){
+            throw new IllegalArgumentException("Multi device runs take output binary or none, not text.");
+        }
+        config.remove("probeSteps");
+    }
+
+    /**
+    *       initialize opens the shared sinks, probes the devices and sets up one
+    *   run per device with its share of the ensemble.
+    */
+    public void initialize(){
+        int nDevices = OpenCLHandler.countDevices(DeviceType);
+        if(nDevices == 0){
+            throw new IllegalStateException("No OpenCL device of type "+DeviceType);
+        }
+        System.out.println("Spreading "+NumOfSystems+" systems over "+nDevices+" devices.");
+
+        if(takeData){
+            GillespieSwitchSim whole = new GillespieSwitchSim();
+            whole.configure(deviceConfig(-1, NumOfSystems, Seed, false));
+            sharedSink = whole.openDataSink();
+            statistics = whole.getStatistics();
+        }
+
+        double[] weights = new double[nDevices];
+        for(int d = 0;d < nDevices;d++){weights[d] = 1.0;}
+        Random seeds = new Random(Seed);
+        if(nDevices > 1 && ProbeSteps > 0){
+            // time the same launches with an even split
+            shares = split(NumOfSystems, weights);
+            GillespieSwitchSim[] probes = createParts(seeds, true);
+            weights = runAll(probes, ProbeSteps);
+            for(int d = 0;d < nDevices;d++){
+                System.out.println("Device "+d+" : "+weights[d]+" system steps per second");
+            }
+        }
+        shares = split(NumOfSystems, weights);
+        sims = createParts(seeds, false);
+    }
+
+    /**
+    *       RunSimulation runs every part to the end and closes the shared sinks.
+    */
+    public void RunSimulation(){
+        runAll(sims, -1);
+        if(sharedSink != null){sharedSink.close();}
+        if(statistics != null){System.out.println(statistics.report());}
+    }
+
+    /**
+    *       createParts creates and initializes one run per device with a share
+    *   of systems, devices with no share get none.
+    *
+    * @param seeds - seeds of the parts
+    * @param probe - true for a probe run taking no data
+    */
+    private GillespieSwitchSim[] createParts(Random seeds, boolean probe){
+        GillespieSwitchSim[] parts = new GillespieSwitchSim[shares.length];
+        int first = 0;
+        for(int d = 0;d < shares.length;d++){
+            long seed = seeds.nextLong();
+            if(shares[d] == 0){continue;}
+            parts[d] = new GillespieSwitchSim();
+            parts[d].configure(deviceConfig(d, shares[d], seed, probe));
+            if(!probe && sharedSink != null){
+                parts[d].setDataSink(new OffsetSwitchTimeSink(sharedSink, first));
+            }
+            parts[d].initialize();
+            System.out.println("Device "+d+" runs systems "+first+" to "+(first+shares[d]-1));
+            first += shares[d];
+        }
+        return parts;
+    }
+
+    /**
+    *       deviceConfig gives the settings of the part on one device.
+    *
+    * @param d - device index, -1 for the settings of the whole ensemble
+    * @param systems - systems of the part
+    * @param seed - seed of the part
+    * @param probe - true for a probe run taking no data
+    */
+    private RunConfig deviceConfig(int d, int systems, long seed, boolean probe){
+        RunConfig c = config.copy();
+        c.set("device", DeviceType);
+        c.set("systems", Integer.toString(systems));
+        c.set("seed", Long.toString(seed));
+        c.set("checkpointHarvests", "0");
+        if(d >= 0){c.set("deviceIndex", Integer.toString(d));}
+        if(probe){
+            c.set("takeData", "false");
+            c.set("findAverage", "false");
+        }
+        return c;
+    }
+
+    /**
+    *       runAll runs every part in its own thread, a number of launches or
+    *   to the end of the run.
+    *
+    * @param parts - runs, null entries are skipped
+    * @param steps - launches per part, -1 to run each to its MaxSteps
+    * @return system steps per second of every part
+    */
+    private double[] runAll(final GillespieSwitchSim[] parts, final int steps){
+        ExecutorService pool = Executors.newFixedThreadPool(parts.length);
+        List<Future<Double>> done = new ArrayList<Future<Double>>();
+        for(int d = 0;d < parts.length;d++){
+            final GillespieSwitchSim part = parts[d];
+            done.add(pool.submit(new Callable<Double>(){
+                @Override
+                public Double call(){
+                    if(part == null){return 0.0;}
+                    long start = System.nanoTime();
+                    if(steps < 0){
+                        part.RunSimulation();
+                        return 0.0;
+                    }
+                    for(int i = 0;i < steps;i++){part.doOneStep();}
+                    part.waitForSteps();
+                    double seconds = (System.nanoTime()-start)/1e9;
+                    part.finishSimulation();
+                    part.release();
+                    return part.getNumOfSystems()*(double)steps/seconds;
+                }
+            }));
+        }
+        double[] rates = new double[parts.length];
+        try {
+            for(int d = 0;d < parts.length;d++){rates[d] = done.get(d).get();}
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Device run failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return rates;
+    }
+
+    /**
+    *       split divides the systems in proportion to the weights, handing the
+    *   remainder to the largest fractions.
+    *
+    * @param total - systems to divide
+    * @param weights - weight of every part
+    */
+    static int[] split(int total, double[] weights){
+        double sum = 0;
+        for(int i = 0;i < weights.length;i++){sum += weights[i];}
+        int[] parts = new int[weights.length];
+        double[] rest = new double[weights.length];
+        int given = 0;
+        for(int i = 0;i < weights.length;i++){
+            double exact = (sum > 0) ? total*weights[i]/sum : total/(double)weights.length;
+            parts[i] = (int) Math.floor(exact);
+            rest[i] = exact-parts[i];
+            given += parts[i];
+        }
+        while(given < total){
+            int best = 0;
+            for(int i = 1;i < rest.length;i++){
+                if(rest[i] > rest[best]){best = i;}
+            }
+            parts[best]++;
+            rest[best] = -1;
+            given++;
+        }
+        return parts;
+    }
+
+    public int[] getShares(){
+        return shares;
+    }
+
+    public static void main(String[] args) throws IOException {
+        MultiDeviceSwitchSim sim = new MultiDeviceSwitchSim(RunConfig.parse(args));
+        sim.initialize();
+        sim.RunSimulation();
+    }
+}
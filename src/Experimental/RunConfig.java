@@ -0,0 +1,235 @@
+package Experimental;
+/*
+ *   @(#)   RunConfig
+ */
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+*      RunConfig holds the settings of a run as string keys and values, read
+*   from properties files and overridden from the command line, so runs can be
+*   swept and tuned per machine without recompiling. The simulations read the
+*   keys they know with defaults and fail on any key nobody read, so a
+*   misspelled key does not go unnoticed.
+*
+*   <br>
+*   Command line: a word containing '=' sets a key, "-key value" sets a key,
+*   any other word is a properties file loaded in order, later settings win.
+*   For example
+*   <br>
+*   GillespieSwitchSim run.properties systems=65536 -resume run.ckpt
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class RunConfig {
+    private Properties props = new Properties();
+    private HashSet<String> used = new HashSet<String>();
+
+    /**
+    *       parse builds a configuration from command line arguments.
+    *
+    * @param args - properties files, key=value and -key value pairs
+    */
+    public static RunConfig parse(String[] args) throws IOException{
+        RunConfig config = new RunConfig();
+        for(int i = 0;i < args.length;i++){
+            String arg = args[i];
+            int eq = arg.indexOf('=');
+            if(eq > 0){
+                config.set(arg.substring(0, eq).trim(), arg.substring(eq+1).trim());
+            }else if(arg.startsWith("-") && arg.length() > 1){
+                if(i+1 >= args.length){
+                    throw new IllegalArgumentException("No value for "+arg);
+                }
+                config.set(arg.substring(1), args[++i]);
+            }else{
+                config.load(arg);
+            }
+        }
+        return config;
+    }
+
+    /**
+    *       load reads a properties file, its keys replace those already set.
+    *
+    * @param filename - properties file
+    */
+    public void load(String filename) throws IOException{
+        InputStream in = new FileInputStream(filename);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void set(String key, String value){
+        props.setProperty(key, value);
+    }
+
+    public void remove(String key){
+        props.remove(key);
+    }
+
+    /**
+    *       copy gives a configuration with the same settings, none of them read.
+    */
+    public RunConfig copy(){
+        RunConfig c = new RunConfig();
+        c.props.putAll(props);
+        return c;
+    }
+
+    public boolean has(String key){
+        return props.getProperty(key) != null;
+    }
+
+    public String getString(String key, String def){
+        used.add(key);
+        String v = props.getProperty(key);
+        return (v == null) ? def : v.trim();
+    }
+
+    public int getInt(String key, int def){
+        String v = getString(key, null);
+        if(v == null){return def;}
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key+" must be an integer, got "+v);
+        }
+    }
+
+    public long getLong(String key, long def){
+        String v = getString(key, null);
+        if(v == null){return def;}
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key+" must be an integer, got "+v);
+        }
+    }
+
+    public float getFloat(String key, float def){
+        return (float) getDouble(key, def);
+    }
+
+    public double getDouble(String key, double def){
+        String v = getString(key, null);
+        if(v == null){return def;}
+        try {
+            return Double.parseDouble(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key+" must be a number, got "+v);
+        }
+    }
+
+    public boolean getBoolean(String key, boolean def){
+        String v = getString(key, null);
+        if(v == null){return def;}
+        if(v.equalsIgnoreCase("true")){return true;}
+        if(v.equalsIgnoreCase("false")){return false;}
+        throw new IllegalArgumentException(key+" must be true or false, got "+v);
+    }
+
+    /**
+    *       getFloats reads a comma separated list of numbers.
+    *
+    * @param key - key
+    * @param def - value if the key is not set
+    */
+    public float[] getFloats(String key, float[] def){
+        String v = getString(key, null);
+        if(v == null){return def;}
+        String[] parts = v.split(",");
+        float[] vals = new float[parts.length];
+        try {
+            for(int i = 0;i < parts.length;i++){vals[i] = Float.parseFloat(parts[i].trim());}
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key+" must be a list of numbers, got "+v);
+        }
+        return vals;
+    }
+
+    /**
+    *       getToggleParams reads the toggle switch parameters in the sysparams
+    *   layout: alpha1, alpha2, tau1, tau2, n1, n2, kappa1, kappa2, p1initial
+    *   and p2initial. beta rescales the rates and constants as the simulation
+    *   defaults do, the single keys then override it.
+    *
+    * @param def - parameters if no key is set
+    */
+    public float[] getToggleParams(float[] def){
+        float[] p = new float[10];
+        System.arraycopy(def, 0, p, 0, Math.min(def.length, p.length));
+        if(has("beta")){
+            float beta = getFloat("beta", 0);
+            p[0] = beta*10;
+            p[1] = beta*10;
+            p[2] = beta;
+            p[3] = beta;
+            p[6] = beta;
+            p[7] = beta;
+        }
+        String[] keys = {"alpha1", "alpha2", "tau1", "tau2", "n1", "n2", "kappa1", "kappa2", "p1initial", "p2initial"};
+        for(int i = 0;i < keys.length;i++){p[i] = getFloat(keys[i], p[i]);}
+        return p;
+    }
+
+    /**
+    *       getOutput reads how switch times are written: binary, text or none.
+    *
+    * @param def - output if the key is not set
+    */
+    public String getOutput(String def){
+        String output = getString("output", def);
+        if(!output.equals("binary") && !output.equals("text") && !output.equals("none")){
+            throw new IllegalArgumentException("output must be binary, text or none, got "+output);
+        }
+        return output;
+    }
+
+    /**
+    *       getDirectory reads a directory, ending it with '/' so file names
+    *   can be appended.
+    *
+    * @param key - key
+    * @param def - directory if the key is not set
+    */
+    public String getDirectory(String key, String def){
+        String dir = getString(key, def);
+        return dir.endsWith("/") ? dir : dir+"/";
+    }
+
+    /**
+    *       checkUnused throws if a key was set that no one read.
+    */
+    public void checkUnused(){
+        TreeSet<String> unknown = new TreeSet<String>(props.stringPropertyNames());
+        unknown.removeAll(used);
+        if(!unknown.isEmpty()){
+            throw new IllegalArgumentException("Unknown settings "+unknown);
+        }
+    }
+
+    /**
+    *       toString lists the settings in key order.
+    */
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+        TreeSet<String> keys = new TreeSet<String>(props.stringPropertyNames());
+        for(String key : keys){
+            sb.append(key).append('=').append(props.getProperty(key)).append('\n');
+        }
+        return sb.toString();
+    }
+}
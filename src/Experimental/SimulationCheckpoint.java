@@ -0,0 +1,255 @@
+package Experimental;
+/*
+ *   @(#)   SimulationCheckpoint
+ */
+
+import Measurement.BinarySwitchTimeReader;
+import Measurement.SwitchTimeSink;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+/**
+*      SimulationCheckpoint is a snapshot of a running simulation: the step
+*   and reaction counters, the random number seeds, the int, float and double
+*   state arrays in a fixed order and the end of the switch time file, in a little
+*   endian binary file. A checkpoint is written to a temporary file and renamed
+*   over the last one, so a run stopped while writing keeps the previous one.
+*
+*   <br>
+*   Layout: magic, version, kind, numSystems, steps, reactions, seed, event
+*   file position, event count, the seeds, then the int and float arrays, each
+*   as its length followed by its values, then from version 2 the double 
+*   arrays the same way.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class SimulationCheckpoint {
+    public static final int MAGIC = 0x4753434B;
+    public static final int VERSION = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private String kind;
+    private int numSystems;
+    private long steps;
+    private long reactions;
+    private long seed;
+    private long eventPosition = -1;
+    private long eventCount = 0;
+    private long[] seeds = new long[0];
+    private ArrayList<int[]> ints = new ArrayList<int[]>();
+    private ArrayList<float[]> floats = new ArrayList<float[]>();
+    private ArrayList<double[]> doubles = new ArrayList<double[]>();
+
+    /**
+    *       SimulationCheckpoint creates an empty checkpoint.
+    *
+    * @param runKind - kernel or engine of the run, checked on resume
+    * @param nSystems - number of systems
+    */
+    public SimulationCheckpoint(String runKind, int nSystems){
+        kind = runKind;
+        numSystems = nSystems;
+    }
+
+    public void setSteps(long n){steps = n;}
+    public void setReactions(long n){reactions = n;}
+    public void setSeed(long s){seed = s;}
+    public void setSeeds(long[] s){seeds = s;}
+    public void addInts(int[] a){ints.add(a);}
+    public void addFloats(float[] a){floats.add(a);}
+    public void addDoubles(double[] a){doubles.add(a);}
+
+    /**
+    *       setEventFile records the end of the switch time data at the
+    *   checkpoint.
+    *
+    * @param pos - end of the data, -1 without a file
+    * @param count - events written
+    */
+    public void setEventFile(long pos, long count){
+        eventPosition = pos;
+        eventCount = count;
+    }
+
+    public String getKind(){return kind;}
+    public int getNumSystems(){return numSystems;}
+    public long getSteps(){return steps;}
+    public long getReactions(){return reactions;}
+    public long getSeed(){return seed;}
+    public long[] getSeeds(){return seeds;}
+    public long getEventPosition(){return eventPosition;}
+    public long getEventCount(){return eventCount;}
+    public int getNumInts(){return ints.size();}
+    public int getNumFloats(){return floats.size();}
+    public int[] getInts(int i){return ints.get(i);}
+    public float[] getFloats(int i){return floats.get(i);}
+    public int getNumDoubles(){return doubles.size();}
+    public double[] getDoubles(int i){return doubles.get(i);}
+
+    /**
+    *       check throws unless the checkpoint comes from the same kind of run
+    *   with the same number of systems.
+    *
+    * @param runKind - kernel or engine of the run resuming
+    * @param nSystems - number of systems of the run resuming
+    */
+    public void check(String runKind, int nSystems){
+        if(!kind.equals(runKind) || numSystems != nSystems){
+            throw new IllegalArgumentException("Checkpoint of "+kind+" with "+numSystems
+                    +" systems cannot resume "+runKind+" with "+nSystems+" systems.");
+        }
+    }
+
+    /**
+    *       write saves the checkpoint, replacing the file only once complete.
+    *
+    * @param filename - checkpoint file
+    */
+    public void write(String filename) throws IOException{
+        byte[] name = kind.getBytes(UTF8);
+        long bytes = 4*4+name.length+8*5+4+8*seeds.length+8;
+        for(int i = 0;i < ints.size();i++){bytes += 4+4L*ints.get(i).length;}
+        for(int i = 0;i < floats.size();i++){bytes += 4+4L*floats.get(i).length;}
+        bytes += 4;
+        for(int i = 0;i < doubles.size();i++){bytes += 4+8L*doubles.get(i).length;}
+
+        ByteBuffer buf = ByteBuffer.allocateDirect((int)bytes).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(name.length);
+        buf.put(name);
+        buf.putInt(numSystems);
+        buf.putLong(steps);
+        buf.putLong(reactions);
+        buf.putLong(seed);
+        buf.putLong(eventPosition);
+        buf.putLong(eventCount);
+        buf.putInt(seeds.length);
+        for(int i = 0;i < seeds.length;i++){buf.putLong(seeds[i]);}
+        buf.putInt(ints.size());
+        buf.putInt(floats.size());
+        for(int i = 0;i < ints.size();i++){
+            int[] a = ints.get(i);
+            buf.putInt(a.length);
+            buf.asIntBuffer().put(a);
+            buf.position(buf.position()+4*a.length);
+        }
+        for(int i = 0;i < floats.size();i++){
+            float[] a = floats.get(i);
+            buf.putInt(a.length);
+            buf.asFloatBuffer().put(a);
+            buf.position(buf.position()+4*a.length);
+        }
+        buf.putInt(doubles.size());
+        for(int i = 0;i < doubles.size();i++){
+            double[] a = doubles.get(i);
+            buf.putInt(a.length);
+            buf.asDoubleBuffer().put(a);
+            buf.position(buf.position()+8*a.length);
+        }
+        buf.flip();
+
+        String tmp = filename+".tmp";
+        RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+        try {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            while(buf.hasRemaining()){channel.write(buf);}
+            channel.force(true);
+        } finally {
+            file.close();
+        }
+        Files.move(Paths.get(tmp), Paths.get(filename),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+    *       read loads a checkpoint.
+    *
+    * @param filename - checkpoint file
+    */
+    public static SimulationCheckpoint read(String filename) throws IOException{
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename))).order(ByteOrder.LITTLE_ENDIAN);
+        if(buf.remaining() < 8 || buf.getInt() != MAGIC){
+            throw new IOException(filename+" is not a checkpoint.");
+        }
+        int version = buf.getInt();
+        if(version > VERSION){
+            throw new IOException(filename+" has unknown checkpoint version "+version);
+        }
+        byte[] name = new byte[buf.getInt()];
+        buf.get(name);
+        SimulationCheckpoint ck = new SimulationCheckpoint(new String(name, UTF8), buf.getInt());
+        ck.steps = buf.getLong();
+        ck.reactions = buf.getLong();
+        ck.seed = buf.getLong();
+        ck.eventPosition = buf.getLong();
+        ck.eventCount = buf.getLong();
+        ck.seeds = new long[buf.getInt()];
+        for(int i = 0;i < ck.seeds.length;i++){ck.seeds[i] = buf.getLong();}
+        int nInts = buf.getInt();
+        int nFloats = buf.getInt();
+        for(int i = 0;i < nInts;i++){
+            int[] a = new int[buf.getInt()];
+            buf.asIntBuffer().get(a);
+            buf.position(buf.position()+4*a.length);
+            ck.ints.add(a);
+        }
+        for(int i = 0;i < nFloats;i++){
+            float[] a = new float[buf.getInt()];
+            buf.asFloatBuffer().get(a);
+            buf.position(buf.position()+4*a.length);
+            ck.floats.add(a);
+        }
+        int nDoubles = (version >= 2) ? buf.getInt() : 0;
+        for(int i = 0;i < nDoubles;i++){
+            double[] a = new double[buf.getInt()];
+            buf.asDoubleBuffer().get(a);
+            buf.position(buf.position()+8*a.length);
+            ck.doubles.add(a);
+        }
+        return ck;
+    }
+
+    /**
+    *       replayEvents passes the events of a switch time file to a sink, to
+    *   rebuild statistics on resume.
+    *
+    * @param filename - switch time file
+    * @param sink - sink to fill
+    * @return events replayed
+    */
+    public static long replayEvents(String filename, SwitchTimeSink sink) throws IOException{
+        BinarySwitchTimeReader reader = new BinarySwitchTimeReader(filename);
+        long total = 0;
+        try {
+            int n;
+            while((n = reader.nextBlockSize()) > 0){
+                float[] times = new float[n];
+                int[] sysIds = new int[n];
+                int[] reactions = new int[n];
+                reader.readBlock(times, sysIds, reactions);
+                int[] info = new int[2*n];
+                for(int i = 0;i < n;i++){
+                    info[i*2] = sysIds[i];
+                    info[i*2+1] = reactions[i];
+                }
+                sink.addEvents(times, info, n);
+                total += n;
+            }
+        } finally {
+            reader.close();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,98 @@
+package Experimental;
+/*
+ *   @(#)   SwitchMultiKernel
+ */
+
+import GPUBackend.OpenCLHandler;
+
+/**
+*      SwitchMultiKernel lays out the buffers and arguments of the
+*   gillespie_switch_multi kernel in the order of its signature, so every run
+*   driving the kernel numbers them the same way. Buffer numbers count per
+*   type, int buffers and float buffers apart, as the handler does.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class SwitchMultiKernel {
+    public static final String NAME = "gillespie_switch_multi";
+    // int buffers, the event pairs follow the event counter
+    public static final int P1 = 0;
+    public static final int P2 = 1;
+    public static final int RNG_STATE = 2;
+    public static final int REACTIONS = 3;
+    public static final int EVENT_COUNT = 4;
+    public static final int EVENT_INFO = 5;
+    public static final int PARAM_INDEX = 6;
+    public static final int TABLE_MISS = 7;
+    // float buffers
+    public static final int TIME = 0;
+    public static final int PARAMS = 1;
+    public static final int EVENT_TIME = 2;
+    public static final int HILL_TABLE = 3;
+    // int arguments
+    public static final int REACTIONS_PER_LAUNCH = 0;
+    public static final int EVENT_CAPACITY = 1;
+    public static final int NUM_ELEMENTS = 2;
+    public static final int TABLE_SIZE = 3;
+    // float arguments
+    public static final int TIME_HORIZON = 0;
+
+    private SwitchMultiKernel(){
+    }
+
+    /**
+    *       createBuffers creates every buffer and argument of the kernel, the
+    *   kernel has to be created already. Buffers given as null start at 0.
+    *
+    * @param handler - handler holding the kernel
+    * @param nSystems - systems the buffers hold
+    * @param p1 - initial p1 of every system or null
+    * @param p2 - initial p2 of every system or null
+    * @param table - parameter table, one row per set
+    * @param rngState - xorshift state, four per system, or null
+    * @param paramIndex - parameter set of every system or null
+    * @param reactionsPerLaunch - reactions per system in a launch
+    * @param eventCapacity - switch events a launch can hold
+    * @param timeHorizon - simulated time per launch, 0 to always run
+    *   reactionsPerLaunch reactions
+    * @return Hill table of the kernel
+    */
+    public static DeviceHillTable createBuffers(OpenCLHandler handler, int nSystems, int[] p1, int[] p2,
+            float[] table, int[] rngState, int[] paramIndex, int reactionsPerLaunch, int eventCapacity,
+            float timeHorizon){
+        // protein amounts and time
+        createInts(handler, P1, nSystems, p1, 0);
+        createInts(handler, P2, nSystems, p2, 0);
+        handler.createFloatBuffer(NAME, TIME, nSystems, 0.0f, 0, true);
+        // parameter table
+        handler.createFloatBuffer(NAME, PARAMS, table.length, table, 1, true);
+        // rng state and reactions since last switch
+        createInts(handler, RNG_STATE, nSystems*4, rngState, 0);
+        handler.createIntBuffer(NAME, REACTIONS, nSystems, 0, 0, true);
+        // switch events
+        handler.createIntBuffer(NAME, EVENT_COUNT, 1, 0, 0, true);
+        handler.createIntBuffer(NAME, EVENT_INFO, eventCapacity*2, 0, 0, true);
+        handler.createFloatBuffer(NAME, EVENT_TIME, eventCapacity, 0.0f, 0, true);
+        // parameter set of every system
+        createInts(handler, PARAM_INDEX, nSystems, paramIndex, 1);
+
+        handler.createIntArg(NAME, REACTIONS_PER_LAUNCH, reactionsPerLaunch);
+        handler.createIntArg(NAME, EVENT_CAPACITY, eventCapacity);
+        handler.createIntArg(NAME, NUM_ELEMENTS, nSystems);
+        handler.createFloatArg(NAME, TIME_HORIZON, timeHorizon);
+
+        // Hill propensity table, after the other buffers of its types
+        return new DeviceHillTable(handler, NAME, table, HILL_TABLE, TABLE_MISS, TABLE_SIZE);
+    }
+
+    private static void createInts(OpenCLHandler handler, int argn, int size, int[] vals, int readwrite){
+        if(vals == null){
+            handler.createIntBuffer(NAME, argn, size, 0, readwrite, true);
+        }else{
+            handler.createIntBuffer(NAME, argn, size, vals, readwrite, true);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package GPUBackend;
+/*
+ *   @(#)   KernelPipeline
+ */
+
+import java.util.ArrayList;
+
+/**
+*      KernelPipeline describes an ordered list of kernel launches and the
+*   launches each one has to wait for. It is enqueued by OpenCLHandler.runPipeline
+*   which chains the launches with OpenCL events.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class KernelPipeline {
+    private ArrayList<String> kernelNames = new ArrayList<String>();
+    private ArrayList<Integer> globalSizes = new ArrayList<Integer>();
+    private ArrayList<Integer> localSizes = new ArrayList<Integer>();
+    private ArrayList<int[]> dependencies = new ArrayList<int[]>();
+
+    /**
+    *       addStage adds a kernel launch to the end of the pipeline.
+    *
+    * @param kernelname - kernel to launch
+    * @param gsize - global work size
+    * @param lsize - local work size
+    * @param dependsOn - names of earlier stages this launch waits for
+    * @return this pipeline
+    */
+    public KernelPipeline addStage(String kernelname, int gsize, int lsize, String... dependsOn){
+        int[] deps = new int[dependsOn.length];
+        for(int i = 0;i < dependsOn.length;i++){
+            deps[i] = kernelNames.lastIndexOf(dependsOn[i]);
+            if(deps[i] < 0){
+                throw new IllegalArgumentException("Stage "+kernelname
+                        +" depends on unknown stage "+dependsOn[i]);
+            }
+        }
+
+        kernelNames.add(kernelname);
+        globalSizes.add(gsize);
+        localSizes.add(lsize);
+        dependencies.add(deps);
+        return this;
+    }
+
+    /**
+    *       withWorkSize gives a copy of the pipeline launching every stage over
+    *   the given work sizes.
+    *
+    * @param gsize - global work size
+    * @param lsize - local work size
+    */
+    public KernelPipeline withWorkSize(int gsize, int lsize){
+        KernelPipeline copy = new KernelPipeline();
+        copy.kernelNames.addAll(kernelNames);
+        copy.dependencies.addAll(dependencies);
+        for(int i = 0;i < kernelNames.size();i++){
+            copy.globalSizes.add(gsize);
+            copy.localSizes.add(lsize);
+        }
+        return copy;
+    }
+
+    /**
+    *       size gives the number of stages in the pipeline.
+    */
+    public int size(){
+        return kernelNames.size();
+    }
+
+    /**
+    *       getKernelName gives the kernel of a stage.
+    *
+    * @param stage - stage index
+    */
+    public String getKernelName(int stage){
+        return kernelNames.get(stage);
+    }
+
+    /**
+    *       getGlobalSize gives the global work size of a stage.
+    *
+    * @param stage - stage index
+    */
+    public int getGlobalSize(int stage){
+        return globalSizes.get(stage);
+    }
+
+    /**
+    *       getLocalSize gives the local work size of a stage.
+    *
+    * @param stage - stage index
+    */
+    public int getLocalSize(int stage){
+        return localSizes.get(stage);
+    }
+
+    /**
+    *       getDependencies gives the indices of the earlier stages a stage waits for.
+    *
+    * @param stage - stage index
+    */
+    public int[] getDependencies(int stage){
+        return dependencies.get(stage);
+    }
+}
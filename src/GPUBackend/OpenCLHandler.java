@@ -6,16 +6,32 @@ package GPUBackend;
 import com.jogamp.opencl.CLDevice.Type;
 import static com.jogamp.opencl.CLMemory.Mem.*;
 import com.jogamp.opencl.*;
+import com.jogamp.common.nio.PointerBuffer;
+import com.jogamp.opencl.llb.CLKernelBinding;
 import com.jogamp.opencl.util.CLPlatformFilters;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import static java.lang.System.out;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
 *      OpenCLHandler handles OpenCL devices by initializing OpenCL and creating
@@ -38,6 +54,15 @@ public class OpenCLHandler {
     private HashMap<String,ArrayList<Integer>> intArgs;
     private HashMap<String,ArrayList<Float>> floatArgs;    
     private HashMap<String,ArrayList<Long>> longArgs;
+    private Set<CLMemory<?>> pendingWrites;
+    private boolean deviceResident = false;
+    // built programs by hash of source and build options, shared by kernels
+    private HashMap<String,CLProgram> programs;
+    private String buildOptions = "";
+    private File kernelDir;
+    private File tuningFile = new File(System.getProperty("user.home"), ".gillespiecl/worksize.properties");
+    public static final int TUNE_LAUNCHES = 10;
+    private File binaryCacheDir = new File(System.getProperty("user.home"), ".gillespiecl/kernels");
     
     /**
     *   initializeOpenCL setups the OpenCL context to run the simulation in the device.
@@ -46,6 +71,66 @@ public class OpenCLHandler {
     *   "" for no preference.
     */
     public void initializeOpenCL(String deviceType){
+        initializeOpenCL(deviceType, false);
+    }
+    
+    /**
+    *   initializeOpenCL setups the OpenCL context to run the simulation in the device.
+    * 
+    * @param deviceType - string for specific device. "GPU","CPU","NVIDIA" example supported types
+    *   "" for no preference.
+    * @param outOfOrder - true to use an out of order queue if the device supports it,
+    *   ordering then comes only from pipeline events and barriers
+    */
+    public void initializeOpenCL(String deviceType, boolean outOfOrder){
+        initializeOpenCL(deviceType, -1, outOfOrder);
+    }
+    
+    /**
+    *   listDevices gives every device of the given type over all platforms, 
+    *   in platform order.
+    * 
+    * @param deviceType - "GPU", "CPU", a platform name or "" for all devices
+    */
+    public static CLDevice[] listDevices(String deviceType){
+        ArrayList<CLDevice> devices = new ArrayList<CLDevice>();
+        CLPlatform[] platforms = CLPlatform.listCLPlatforms();
+        for(int i = 0;i < platforms.length;i++){
+            CLDevice[] found;
+            if(deviceType.equalsIgnoreCase("GPU")){
+                found = platforms[i].listCLDevices(Type.GPU);
+            }else if(deviceType.equalsIgnoreCase("CPU")){
+                found = platforms[i].listCLDevices(Type.CPU);
+            }else if(deviceType.equals("") || platforms[i].getName().equalsIgnoreCase(deviceType)){
+                found = platforms[i].listCLDevices();
+            }else{
+                continue;
+            }
+            Collections.addAll(devices, found);
+        }
+        return devices.toArray(new CLDevice[devices.size()]);
+    }
+    
+    /**
+    *   countDevices gives the number of devices of the given type over all
+    *   platforms.
+    * 
+    * @param deviceType - "GPU", "CPU", a platform name or "" for all devices
+    */
+    public static int countDevices(String deviceType){
+        return listDevices(deviceType).length;
+    }
+    
+    /**
+    *   initializeOpenCL setups the OpenCL context to run the simulation in one
+    *   chosen device, so several handlers can drive several devices.
+    * 
+    * @param deviceType - "GPU", "CPU", a platform name or "" for all devices
+    * @param deviceIndex - index in listDevices, -1 for the fastest device of 
+    *   the first matching platform
+    * @param outOfOrder - true to use an out of order queue if the device supports it
+    */
+    public void initializeOpenCL(String deviceType, int deviceIndex, boolean outOfOrder){
     
         // Initialize all list and maps
         kernels = new HashMap<String,CLKernel>();
@@ -55,6 +140,21 @@ public class OpenCLHandler {
         intArgs = new HashMap<String,ArrayList<Integer>>();
         floatArgs  = new HashMap<String,ArrayList<Float>>();
         longArgs = new HashMap<String,ArrayList<Long>>();
+        pendingWrites = Collections.synchronizedSet(new HashSet<CLMemory<?>>());
+        programs = new HashMap<String,CLProgram>();
+        
+        if(deviceIndex >= 0){
+            CLDevice[] devices = listDevices(deviceType);
+            if(deviceIndex >= devices.length){
+                throw new IllegalArgumentException("No device "+deviceIndex+" of type "+deviceType
+                        +", found "+devices.length);
+            }
+            context = CLContext.create(devices[deviceIndex]);
+            device = context.getDevices()[0];
+            out.println("using "+device);
+            createQueue(outOfOrder);
+            return;
+        }
         
         // search for platform support given device string
         if(deviceType.equalsIgnoreCase("GPU") || 
@@ -108,12 +208,30 @@ public class OpenCLHandler {
         device = context.getMaxFlopsDevice();
         out.println("using "+device);
 
+        createQueue(outOfOrder);
+    }
+    
+    /**
+    *   createQueue creates the command queue on the device.
+    * 
+    * @param outOfOrder - true to use an out of order queue if the device supports it
+    */
+    private void createQueue(boolean outOfOrder){
         // create command queue on device.
-        queue = device.createCommandQueue();
+        if(outOfOrder && device.getQueueProperties().contains(CLCommandQueue.Mode.OUT_OF_ORDER_MODE)){
+            queue = device.createCommandQueue(CLCommandQueue.Mode.OUT_OF_ORDER_MODE);
+            out.println("using out of order queue");
+        }else{
+            queue = device.createCommandQueue();
+        }
     }
     
     /**
-    *   createKernel builds the kernel in the OpenCL device.
+    *   createKernel builds the kernel in the OpenCL device. The source is
+    *   looked up in the kernel directory if one is set, then as the resource
+    *   GPUKernels/fname on the classpath, so kernels packaged in the jar are 
+    *   found from any working directory, and last in GPUKernels/ or 
+    *   src/GPUKernels/ under the working directory as when run from the IDE.
     * 
     * @param fname - kernel file name- null for device filename is the same 
     *       as kernelname but cl as filetype
@@ -123,46 +241,229 @@ public class OpenCLHandler {
             
         // Find kernel file
         if(fname==null || fname.equals("")){fname= kernelname+".cl";}
-        String fname1 = "GPUKernels/"+fname;
-        File f = new File(fname1);
-
-        System.out.println("Current Path:"+f.getAbsolutePath());
-        if(f.exists()){
-            System.out.println("Found Kernel File");
-        }else{
-            System.out.println("Assuming running from IDE folder.");
-            String fname2 = "src/"+fname1;
-            f = new File(fname2);
-            if(f.exists()){
-                System.out.println("Found Kernel File");
-                fname = fname2;
-            }else{
-                System.out.println("Kernel File Not Found");}
-        }
 
         System.out.println("Creating kernel:"+kernelname);
 
         // Read source code
+        createKernelFromSource(kernelname, readKernelSource(fname));
+    }
+    
+    /**
+    *   readKernelSource reads the source of a kernel file.
+    * 
+    * @param fname - kernel file name
+    * @return source of the kernel
+    */
+    private String readKernelSource(String fname){
+        if(kernelDir != null){
+            File f = new File(kernelDir, fname);
+            if(f.isFile()){
+                System.out.println("Found Kernel File "+f.getPath());
+                return readFile(f.getPath());
+            }
+        }
+        
+        InputStream in = OpenCLHandler.class.getResourceAsStream("/GPUKernels/"+fname);
+        if(in != null){
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] chunk = new byte[8192];
+                int n;
+                while((n = in.read(chunk)) > 0){bytes.write(chunk, 0, n);}
+                System.out.println("Found Kernel Resource GPUKernels/"+fname);
+                return new String(bytes.toByteArray(), "UTF-8");
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read kernel resource GPUKernels/"+fname, e);
+            } finally {
+                try {in.close();} catch (IOException e) {}
+            }
+        }
+        
+        String[] paths = {"GPUKernels/"+fname, "src/GPUKernels/"+fname};
+        for(int i = 0;i < paths.length;i++){
+            File f = new File(paths[i]);
+            if(f.isFile()){
+                System.out.println("Found Kernel File "+f.getAbsolutePath());
+                return readFile(paths[i]);
+            }
+        }
+        throw new IllegalArgumentException("Kernel file "+fname+" not found in "
+                +((kernelDir != null) ? kernelDir.getPath()+", " : "")
+                +"the classpath or "+new File("").getAbsolutePath());
+    }
+    
+    /**
+    *   setKernelDirectory sets a directory searched for kernel files before
+    *   the classpath, null for none.
+    * 
+    * @param dir - kernel directory
+    */
+    public void setKernelDirectory(String dir){
+        kernelDir = (dir == null) ? null : new File(dir);
+    }
+    
+    /**
+    *   setBuildOptions sets the OpenCL compiler options of the kernels built
+    *   from now on, such as -cl-fast-relaxed-math, -cl-mad-enable or -D macros.
+    *   Programs are cached per options so kernels built with other options are
+    *   built again.
+    * 
+    * @param options - compiler options, "" for none
+    */
+    public void setBuildOptions(String options){
+        buildOptions = (options == null) ? "" : options.trim();
+    }
+    
+    /**
+    *   defineMacro adds a -D macro to the build options.
+    * 
+    * @param name - macro name
+    * @param value - macro value
+    */
+    public void defineMacro(String name, String value){
+        setBuildOptions(buildOptions+" -D "+name+"="+value);
+    }
+    
+    public String getBuildOptions(){
+        return buildOptions;
+    }
+    
+    /**
+    *   createKernelFromSource builds a kernel from source held in memory, such 
+    *   as a kernel generated at run time.
+    * 
+    * @param kernelname - kernel name 
+    * @param sourceCode - OpenCL source containing the kernel
+    */
+    public void createKernelFromSource(String kernelname, String sourceCode){
         CLProgram program=null;
 
         try{
-        String sourceCode = readFile(fname);
-
         argTypes.put(kernelname,getKernelIOTypes(kernelname,sourceCode));
 
-        // load sources, create and build program
-        program = context.createProgram(sourceCode).build();
+        // reuse the program if built already, else load or build it
+        program = getProgram(sourceCode);
 
         System.out.println("prog: "+program);
-        }catch (Exception e) {
-            e.printStackTrace();
-        }       
 
         // kernel comes labeled therefore just push into kernels
         kernels.put(kernelname,program.createCLKernel(kernelname));
+        }catch (CLException e) {
+            throw new IllegalStateException("Could not build kernel "+kernelname
+                    +((buildOptions.length() > 0) ? " with options "+buildOptions : "")+": "+e.getMessage(), e);
+        }
           
     }
     
+    /**
+    *       getProgram gives the program built from the source with the build 
+    *   options. A program is built once per handler and shared by all its 
+    *   kernels. Built binaries are kept in the binary cache keyed by the hash
+    *   of the source, the build options and the device and driver, so later 
+    *   runs skip the compiler. A cached binary the driver rejects is rebuilt 
+    *   from source and replaced.
+    * 
+    * @param sourceCode - OpenCL source
+    */
+    private CLProgram getProgram(String sourceCode){
+        String key = hash(sourceCode+"\u0000"+buildOptions);
+        CLProgram program = programs.get(key);
+        if(program != null){return program;}
+        
+        File cached = null;
+        if(binaryCacheDir != null){
+            cached = new File(binaryCacheDir, hash(key+"\u0000"+getDeviceSignature())+".bin");
+            program = loadBinary(cached);
+        }
+        if(program == null){
+            program = context.createProgram(sourceCode).build(buildOptions, device);
+            if(cached != null){saveBinary(cached, program);}
+        }
+        programs.put(key, program);
+        return program;
+    }
+    
+    /**
+    *       loadBinary builds a program from a cached binary.
+    * 
+    * @param f - cache file
+    * @return the program, null if there is no usable binary
+    */
+    private CLProgram loadBinary(File f){
+        if(!f.isFile()){return null;}
+        CLProgram program = null;
+        try {
+            byte[] binary = Files.readAllBytes(f.toPath());
+            program = context.createProgram(Collections.singletonMap(device, binary));
+            program.build(buildOptions, device);
+            System.out.println("Loaded cached kernel binary "+f.getName());
+            return program;
+        } catch (Exception e) {
+            System.out.println("Rebuilding kernel, cached binary "+f.getName()+" rejected: "+e.getMessage());
+            if(program != null){program.release();}
+            return null;
+        }
+    }
+    
+    /**
+    *       saveBinary writes the binary of a built program to the cache. The
+    *   file is written under a temporary name and renamed so concurrent runs
+    *   never read half a binary. Failing to cache only costs a rebuild.
+    * 
+    * @param f - cache file
+    * @param program - built program
+    */
+    private void saveBinary(File f, CLProgram program){
+        try {
+            Map<CLDevice,byte[]> binaries = program.getBinaries();
+            byte[] binary = binaries.get(device);
+            if(binary == null || binary.length == 0){return;}
+            if(!binaryCacheDir.isDirectory() && !binaryCacheDir.mkdirs()){return;}
+            File tmp = File.createTempFile(f.getName(), ".tmp", binaryCacheDir);
+            Files.write(tmp.toPath(), binary);
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, 
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            System.out.println("Could not cache kernel binary: "+e.getMessage());
+        }
+    }
+    
+    /**
+    *       getDeviceSignature identifies the device and driver a binary was 
+    *   built for.
+    */
+    private String getDeviceSignature(){
+        return device.getPlatform().getName()+"|"+device.getPlatform().getVersion()+"|"
+                +device.getName()+"|"+device.getVendor()+"|"+device.getDriverVersion();
+    }
+    
+    /**
+    *       hash gives the SHA-256 of a string in hex.
+    */
+    private static String hash(String text){
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(Charset.forName("UTF-8")));
+            StringBuilder sb = new StringBuilder();
+            for(int i = 0;i < digest.length;i++){
+                sb.append(String.format("%02x", digest[i] & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+    *       setBinaryCache sets the directory of cached kernel binaries, null 
+    *   to always build from source. The default is .gillespiecl/kernels in the
+    *   home directory.
+    * 
+    * @param dir - cache directory
+    */
+    public void setBinaryCache(String dir){
+        binaryCacheDir = (dir == null) ? null : new File(dir);
+    }
+    
     /**
     *       runKernel runs the kernel in the OpenCL device.
     * 
@@ -179,6 +480,228 @@ public class OpenCLHandler {
             
     }
     
+    /**
+    *       runPipeline enqueues every stage of the pipeline without blocking. 
+    *   Each launch waits on the events of the stages it depends on.
+    * 
+    * @param pipeline - kernels and their dependencies
+    * @return future which completes when every stage has run
+    */
+    public PipelineFuture runPipeline(KernelPipeline pipeline){
+        return runPipeline(pipeline, null);
+    }
+    
+    /**
+    *       runPipeline enqueues every stage of the pipeline without blocking. 
+    *   Each launch waits on the events of the stages it depends on and stages
+    *   without dependencies wait on the given earlier pipeline.
+    * 
+    * @param pipeline - kernels and their dependencies
+    * @param after - earlier pipeline to wait for, null for none
+    * @return future which completes when every stage has run
+    */
+    public PipelineFuture runPipeline(KernelPipeline pipeline, PipelineFuture after){
+        int nStages = pipeline.size();
+        CLEventList[] events = new CLEventList[nStages];
+        
+        // buffers have to be in the device before any stage starts
+        for(int i = 0;i < nStages;i++){
+            assertKernelBuffersMade(pipeline.getKernelName(i));
+            setQueueBuff(pipeline.getKernelName(i));
+        }
+        if(queue.isOutOfOrderModeEnabled()){queue.putBarrier();}
+        
+        CLEvent[] previous = null;
+        if(after != null && !after.isDone()){previous = after.getEvents();}
+        
+        for(int i = 0;i < nStages;i++){
+            int[] deps = pipeline.getDependencies(i);
+            CLEventList condition = null;
+            if(deps.length > 0){
+                CLEvent[] wait = new CLEvent[deps.length];
+                for(int j = 0;j < deps.length;j++){
+                    wait[j] = events[deps[j]].getEvent(0);
+                }
+                condition = new CLEventList(wait);
+            }else if(previous != null){
+                condition = new CLEventList(previous);
+            }
+            
+            events[i] = new CLEventList(1);
+            queue.put1DRangeKernel(kernels.get(pipeline.getKernelName(i)), 0, 
+                    pipeline.getGlobalSize(i), pipeline.getLocalSize(i), condition, events[i]);
+        }
+        queue.flush();
+        
+        return new PipelineFuture(events);
+    }
+    
+    /**
+    *       padGlobalSize rounds a global work size up to a multiple of the 
+    *   local work size. Kernels skip the work items past their nElements.
+    * 
+    * @param n - work items needed
+    * @param lsize - local work size, 0 or less for none
+    */
+    public static int padGlobalSize(int n, int lsize){
+        if(lsize <= 0){return n;}
+        return ((n+lsize-1)/lsize)*lsize;
+    }
+    
+    /**
+    *       getWorkGroupLimits gives the largest work group a kernel can be 
+    *   launched with on the device and the preferred multiple of the work 
+    *   group size, 1 if the device does not report it.
+    * 
+    * @param kernelname - kernel to query
+    * @return largest work group size then preferred multiple
+    */
+    public int[] getWorkGroupLimits(String kernelname){
+        CLKernel kernel = kernels.get(kernelname);
+        int maxSize = (int) Math.min(kernel.getWorkGroupSize(device), device.getMaxWorkItemSizes()[0]);
+        int multiple = 1;
+        PointerBuffer value = PointerBuffer.allocateDirect(1);
+        int ret = CLPlatform.getLowLevelCLInterface().clGetKernelWorkGroupInfo(kernel.getID(), device.getID(),
+                CLKernelBinding.CL_KERNEL_PREFERRED_WORK_GROUP_SIZE_MULTIPLE, value.elementSize(), value.getBuffer(), null);
+        if(ret == 0 && value.get(0) > 0){multiple = (int) value.get(0);}
+        return new int[]{maxSize, Math.min(multiple, maxSize)};
+    }
+    
+    /**
+    *       getTunedLocalWorkSize gives the local work size saved for the 
+    *   kernels of the pipeline on this device, tuning and saving it first if 
+    *   there is none.
+    * 
+    * @param pipeline - pipeline to tune, its launches advance the kernels
+    * @param nElements - work items needed
+    */
+    public int getTunedLocalWorkSize(KernelPipeline pipeline, int nElements){
+        String key = getTuningKey(pipeline);
+        Properties tuned = loadTuning();
+        String saved = tuned.getProperty(key);
+        if(saved != null){
+            System.out.println("Using saved local work size "+saved);
+            return Integer.parseInt(saved);
+        }
+        int best = tuneLocalWorkSize(pipeline, nElements, TUNE_LAUNCHES);
+        tuned.setProperty(key, Integer.toString(best));
+        saveTuning(tuned);
+        return best;
+    }
+    
+    /**
+    *       hasTunedLocalWorkSize tells if a local work size is saved for the
+    *   kernels of the pipeline on this device, so getTunedLocalWorkSize will
+    *   not launch them.
+    * 
+    * @param pipeline - pipeline to tune
+    */
+    public boolean hasTunedLocalWorkSize(KernelPipeline pipeline){
+        return loadTuning().getProperty(getTuningKey(pipeline)) != null;
+    }
+    
+    private String getTuningKey(KernelPipeline pipeline){
+        StringBuilder key = new StringBuilder();
+        for(int i = 0;i < pipeline.size();i++){
+            key.append((i > 0) ? "+" : "").append(pipeline.getKernelName(i));
+        }
+        key.append('@').append(getDeviceSignature());
+        return key.toString();
+    }
+    
+    /**
+    *       tuneLocalWorkSize times the pipeline at every power of two multiple
+    *   of the preferred work group multiple its kernels allow, over the padded
+    *   global size, and gives the fastest. The launches are real, so the 
+    *   kernels have to be set up and their state advances.
+    * 
+    * @param pipeline - pipeline to tune
+    * @param nElements - work items needed
+    * @param launches - timed launches per candidate
+    * @return fastest local work size
+    */
+    public int tuneLocalWorkSize(KernelPipeline pipeline, int nElements, int launches){
+        int maxSize = Integer.MAX_VALUE;
+        int multiple = 1;
+        for(int i = 0;i < pipeline.size();i++){
+            int[] limits = getWorkGroupLimits(pipeline.getKernelName(i));
+            maxSize = Math.min(maxSize, limits[0]);
+            multiple = Math.max(multiple, limits[1]);
+        }
+        // no point in work groups past the padded problem
+        maxSize = Math.min(maxSize, padGlobalSize(nElements, multiple));
+        
+        int best = Math.min(multiple, maxSize);
+        double bestTime = Double.MAX_VALUE;
+        for(int lsize = best;lsize <= maxSize;lsize *= 2){
+            KernelPipeline candidate = pipeline.withWorkSize(padGlobalSize(nElements, lsize), lsize);
+            try {
+                // first launch pays for any lazy setup
+                runPipeline(candidate).get();
+                long start = System.nanoTime();
+                for(int k = 0;k < launches;k++){
+                    runPipeline(candidate).get();
+                }
+                double ms = (System.nanoTime()-start)/1e6/launches;
+                System.out.println("Local work size "+lsize+" : "+ms+" ms per launch");
+                if(ms < bestTime){
+                    bestTime = ms;
+                    best = lsize;
+                }
+            } catch (CLException e) {
+                System.out.println("Local work size "+lsize+" failed: "+e.getMessage());
+            }
+        }
+        System.out.println("Tuned local work size "+best);
+        return best;
+    }
+    
+    /**
+    *       setTuningFile sets the file of saved local work sizes, null to tune
+    *   on every run. The default is .gillespiecl/worksize.properties in the 
+    *   home directory.
+    * 
+    * @param filename - tuning file
+    */
+    public void setTuningFile(String filename){
+        tuningFile = (filename == null) ? null : new File(filename);
+    }
+    
+    private Properties loadTuning(){
+        Properties tuned = new Properties();
+        if(tuningFile == null || !tuningFile.isFile()){return tuned;}
+        try {
+            InputStream in = new FileInputStream(tuningFile);
+            try {
+                tuned.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read tuning file: "+e.getMessage());
+        }
+        return tuned;
+    }
+    
+    private void saveTuning(Properties tuned){
+        if(tuningFile == null){return;}
+        try {
+            File dir = tuningFile.getAbsoluteFile().getParentFile();
+            if(!dir.isDirectory() && !dir.mkdirs()){return;}
+            File tmp = File.createTempFile(tuningFile.getName(), ".tmp", dir);
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                tuned.store(out, "local work size per kernel and device");
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), tuningFile.toPath(), StandardCopyOption.REPLACE_EXISTING, 
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Could not save tuning file: "+e.getMessage());
+        }
+    }
+    
     /**
     *       setQueueBuff sets the buffers in the OpenCL queue so the device knows  
     *   which buffers to access.
@@ -186,6 +709,12 @@ public class OpenCLHandler {
     * @param kernelname - kernel which needs buffers in queue
     */
     private void setQueueBuff(String kernelname){
+        // device resident buffers only go up when the host copy changed
+        if(deviceResident){
+            uploadPendingBuffers(kernelname);
+            return;
+        }
+        
         // get list of buffers for this kernel
         ArrayList<String> kernelTypes = argTypes.get(kernelname);
         int floatBuffInd = 0;
@@ -209,7 +738,167 @@ public class OpenCLHandler {
             }
         }
     }
+    
+    /**
+    *       uploadPendingBuffers writes the buffers of this kernel whose host copy
+    *   has not been sent to the device yet.
+    * 
+    * @param kernelname - kernel which needs buffers in device
+    */
+    private void uploadPendingBuffers(String kernelname){
+        if(pendingWrites.isEmpty()){return;}
+        
+        ArrayList<CLBuffer<IntBuffer>> ibuff = intBuffers.get(kernelname);
+        ArrayList<CLBuffer<FloatBuffer>> fbuff = flBuffers.get(kernelname);
+        if(ibuff != null){
+            for(int i = 0;i < ibuff.size();i++){
+                if(pendingWrites.remove(ibuff.get(i))){queue.putWriteBuffer(ibuff.get(i),false);}
+            }
+        }
+        if(fbuff != null){
+            for(int i = 0;i < fbuff.size();i++){
+                if(pendingWrites.remove(fbuff.get(i))){queue.putWriteBuffer(fbuff.get(i),false);}
+            }
+        }
+    }
+    
+    /**
+    *       uploadPending writes the buffers of a kernel not yet sent to the 
+    *   device and waits for them, so they can be read back before the first
+    *   launch.
+    * 
+    * @param kernelname - kernel whose buffers to upload
+    */
+    public void uploadPending(String kernelname){
+        uploadPendingBuffers(kernelname);
+        queue.finish();
+    }
+    
+    /**
+    *       setDeviceResident sets whether buffers stay in the device across 
+    *   kernel launches. When resident, a buffer is written to the device once
+    *   after creation and afterwards only through writeIntBuffer/writeFloatBuffer.
+    *   Reads only happen through the get*BufferAsArray calls. Otherwise every 
+    *   buffer is written before each launch.
+    * 
+    * @param resident - true to keep buffers in the device
+    */
+    public void setDeviceResident(boolean resident){
+        deviceResident = resident;
+    }
+    
+    /**
+    *       finish blocks until all commands in the queue have completed.
+    */
+    public void finish(){
+        queue.finish();
+    }
+    
+    /**
+    *       writeIntBuffer copies the values into the host copy of the buffer 
+    *   and writes it to the device.
+    * 
+    * @param kernelname - kernel the buffer belongs to
+    * @param argn - argument number 
+    * @param vals - values to write, at most the size of the buffer
+    */
+    public void writeIntBuffer(String kernelname,int argn, int[] vals){
+        CLBuffer<IntBuffer> buffer=intBuffers.get(kernelname).get(argn);
+        buffer.getBuffer().put(vals, 0, Math.min(vals.length, buffer.getBuffer().capacity()));
+        buffer.getBuffer().rewind();
+        queue.putWriteBuffer(buffer, true);
+        pendingWrites.remove(buffer);
+    }
+    
+    /**
+    *       writeFloatBuffer copies the values into the host copy of the buffer 
+    *   and writes it to the device.
+    * 
+    * @param kernelname - kernel the buffer belongs to
+    * @param argn - argument number 
+    * @param vals - values to write, at most the size of the buffer
+    */
+    public void writeFloatBuffer(String kernelname,int argn, float[] vals){
+        CLBuffer<FloatBuffer> buffer=flBuffers.get(kernelname).get(argn);
+        buffer.getBuffer().put(vals, 0, Math.min(vals.length, buffer.getBuffer().capacity()));
+        buffer.getBuffer().rewind();
+        queue.putWriteBuffer(buffer, true);
+        pendingWrites.remove(buffer);
+    }
+
+    /**
+    *       writeIntBuffer writes only the first size values to the start of
+    *   the device buffer, the rest of the buffer is not transferred.
+    *
+    * @param kernelname - kernel the buffer belongs to
+    * @param argn - argument number
+    * @param vals - values to write, at least size long
+    * @param size - number of values to write, at most the size of the buffer
+    */
+    public void writeIntBuffer(String kernelname,int argn, int[] vals, int size){
+        if(size <= 0){return;}
+        CLBuffer<IntBuffer> buffer=intBuffers.get(kernelname).get(argn);
+        IntBuffer prefix = buffer.getBuffer().duplicate();
+        prefix.rewind();
+        prefix.limit(size);
+        prefix = prefix.slice();
+        prefix.put(vals, 0, size);
+        prefix.rewind();
+        queue.putWriteBuffer(buffer.cloneWith(prefix), true);
+        pendingWrites.remove(buffer);
+    }
+
+    /**
+    *       writeFloatBuffer writes only the first size values to the start of
+    *   the device buffer, the rest of the buffer is not transferred.
+    *
+    * @param kernelname - kernel the buffer belongs to
+    * @param argn - argument number
+    * @param vals - values to write, at least size long
+    * @param size - number of values to write, at most the size of the buffer
+    */
+    public void writeFloatBuffer(String kernelname,int argn, float[] vals, int size){
+        if(size <= 0){return;}
+        CLBuffer<FloatBuffer> buffer=flBuffers.get(kernelname).get(argn);
+        FloatBuffer prefix = buffer.getBuffer().duplicate();
+        prefix.rewind();
+        prefix.limit(size);
+        prefix = prefix.slice();
+        prefix.put(vals, 0, size);
+        prefix.rewind();
+        queue.putWriteBuffer(buffer.cloneWith(prefix), true);
+        pendingWrites.remove(buffer);
+    }
    
+    /**
+    *       replaceFloatBuffer replaces a float buffer of a kernel by a new one
+    *   holding the values, which may differ in size, and releases the old one.
+    *   Wait for the kernels using the buffer first and call setKernelArg with 
+    *   setPrev true afterwards.
+    * 
+    * @param kernelname - kernel the buffer belongs to
+    * @param argn - argument number 
+    * @param vals - values of the new buffer
+    * @param readwrite - int (2,1,0) - 2 write only, 1 read only, 0 read and write
+    */
+    public void replaceFloatBuffer(String kernelname,int argn, float[] vals,int readwrite){
+        CLBuffer<FloatBuffer> buffer;
+        if(readwrite ==2){
+            buffer = context.createFloatBuffer(vals.length, WRITE_ONLY);
+        }else if(readwrite==1){
+            buffer = context.createFloatBuffer(vals.length, READ_ONLY);
+        }else{
+            buffer = context.createFloatBuffer(vals.length, READ_WRITE);
+        }
+        buffer.getBuffer().put(vals);
+        buffer.getBuffer().rewind();
+        queue.putWriteBuffer(buffer, true);
+        
+        CLBuffer<FloatBuffer> old = flBuffers.get(kernelname).set(argn, buffer);
+        pendingWrites.remove(old);
+        old.release();
+    }
+    
     /**
     *       createIntBuffer creates and fills an integer buffer then adds it to 
     *   the list of int buffers for this kernel at given argument entry number. 
@@ -246,6 +935,7 @@ public class OpenCLHandler {
         // push buffer into buffers list        
         kbuff.add(argn, buffer);
         intBuffers.put(kernelname, kbuff);    
+        pendingWrites.add(buffer);
     }
     
     /**
@@ -303,6 +993,7 @@ public class OpenCLHandler {
         // push buffer into buffers list               
         kbuff.add(argn, buffer);
         intBuffers.put(kernelname, kbuff);
+        pendingWrites.add(buffer);
     }
     
     
@@ -427,6 +1118,7 @@ public class OpenCLHandler {
         // push buffer into buffers list       
         kbuff.add(argn, buffer);
         flBuffers.put(kernelname, kbuff);
+        pendingWrites.add(buffer);
     }    
 
     /**
@@ -485,6 +1177,7 @@ public class OpenCLHandler {
         // push buffer into buffers list        
         kbuff.add(argn, buffer);
         flBuffers.put(kernelname, kbuff);
+        pendingWrites.add(buffer);
     }
 
     /**
@@ -516,6 +1209,42 @@ public class OpenCLHandler {
         flBuffers.put(dkernel, kbuff);
     }
     
+    /**
+    *       swapFlBufferAcrossKernel swaps a float buffer of one kernel with a float
+    *   buffer of another. Call setKernelArg with setPrev true afterwards for 
+    *   the kernels which need to see the swap.
+    * 
+    * @param kernel1 - first kernel name
+    * @param argn1 - first kernel float argument number
+    * @param kernel2 - second kernel name
+    * @param argn2 - second kernel float argument number
+    */
+    public void swapFlBufferAcrossKernel(String kernel1,int argn1,String kernel2,int argn2){
+        ArrayList<CLBuffer<FloatBuffer>> kbuff1 = flBuffers.get(kernel1);
+        ArrayList<CLBuffer<FloatBuffer>> kbuff2 = flBuffers.get(kernel2);
+        CLBuffer<FloatBuffer> push = kbuff1.get(argn1);
+        kbuff1.set(argn1, kbuff2.get(argn2));
+        kbuff2.set(argn2, push);
+    }
+    
+    /**
+    *       swapIntBufferAcrossKernel swaps an int buffer of one kernel with an int
+    *   buffer of another. Call setKernelArg with setPrev true afterwards for 
+    *   the kernels which need to see the swap.
+    * 
+    * @param kernel1 - first kernel name
+    * @param argn1 - first kernel int argument number
+    * @param kernel2 - second kernel name
+    * @param argn2 - second kernel int argument number
+    */
+    public void swapIntBufferAcrossKernel(String kernel1,int argn1,String kernel2,int argn2){
+        ArrayList<CLBuffer<IntBuffer>> kbuff1 = intBuffers.get(kernel1);
+        ArrayList<CLBuffer<IntBuffer>> kbuff2 = intBuffers.get(kernel2);
+        CLBuffer<IntBuffer> push = kbuff1.get(argn1);
+        kbuff1.set(argn1, kbuff2.get(argn2));
+        kbuff2.set(argn2, push);
+    }
+    
     /**
     *       copyIntBufferAcrossKernel copies a buffer from source kernel int buffer list
     *   into destination kernel int buffer list.
@@ -644,13 +1373,9 @@ public class OpenCLHandler {
         try {
             byte[] bytes = Files.readAllBytes(f.toPath());
             return new String(bytes,"UTF-8");
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not read kernel file "+filename, e);
         }
-
-        return "";
     }
 
     /**
@@ -663,11 +1388,19 @@ public class OpenCLHandler {
     */
     private ArrayList<String> getKernelIOTypes(String kernelname, String source){
         
-        //parse io types
-        String[] src=source.split("\\(");
-        src = src[1].split("\\)");
+        //parse io types of the named kernel, helper functions may come first
+        String argList;
+        Matcher m = Pattern.compile("__kernel\\s+void\\s+"+Pattern.quote(kernelname)
+                +"\\s*\\(([^)]*)\\)").matcher(source);
+        if(m.find()){
+            argList = m.group(1);
+        }else{
+            String[] src=source.split("\\(");
+            src = src[1].split("\\)");
+            argList = src[0];
+        }
         ArrayList<String> types = new ArrayList<String>();
-        String[] typeSet = src[0].split(",");
+        String[] typeSet = argList.split(",");
         String proc,type="";
         boolean initFlBuff=false;
         boolean initIntBuff=false;
@@ -806,6 +1539,108 @@ public class OpenCLHandler {
     }
     
     
+    /**
+    *           readIntBuffer reads only the first size values of the device 
+    *   buffer into dest, the rest of the buffer is not transferred.
+    * 
+    * @param kernelname - kernel to retrieve buffer from
+    * @param argn - argument number 
+    * @param dest - array to fill, at least size long
+    * @param size - number of values to retrieve 
+    */
+    public void readIntBuffer(String kernelname,int argn, int[] dest, int size){
+        if(size <= 0){return;}
+        CLBuffer<IntBuffer> buffer=intBuffers.get(kernelname).get(argn);
+        IntBuffer prefix = buffer.getBuffer().duplicate();
+        prefix.rewind();
+        prefix.limit(size);
+        prefix = prefix.slice();
+        queue.putReadBuffer(buffer.cloneWith(prefix), true);
+        prefix.get(dest, 0, size);
+    }
+    
+    /**
+    *           readFloatBuffer reads only the first size values of the device 
+    *   buffer into dest, the rest of the buffer is not transferred.
+    * 
+    * @param kernelname - kernel to retrieve buffer from
+    * @param argn - argument number 
+    * @param dest - array to fill, at least size long
+    * @param size - number of values to retrieve 
+    */
+    public void readFloatBuffer(String kernelname,int argn, float[] dest, int size){
+        if(size <= 0){return;}
+        CLBuffer<FloatBuffer> buffer=flBuffers.get(kernelname).get(argn);
+        FloatBuffer prefix = buffer.getBuffer().duplicate();
+        prefix.rewind();
+        prefix.limit(size);
+        prefix = prefix.slice();
+        queue.putReadBuffer(buffer.cloneWith(prefix), true);
+        prefix.get(dest, 0, size);
+    }
+    
+    /**
+    *           readIntBufferAsync enqueues a non blocking read of the device 
+    *   buffer. Once the future completes the first size values are in dest.
+    * 
+    * @param kernelname - kernel to retrieve buffer from
+    * @param argn - argument number 
+    * @param dest - array to fill, at least size long
+    * @param size - size of buffer to retrieve 
+    * @param after - commands to wait for before reading, null for none
+    * @return future which fills dest when it completes
+    */
+    public PipelineFuture readIntBufferAsync(String kernelname,int argn, final int[] dest,
+            final int size, PipelineFuture after){
+        final CLBuffer<IntBuffer> buffer=intBuffers.get(kernelname).get(argn);
+        
+        CLEventList condition = null;
+        if(after != null && !after.isDone()){condition = new CLEventList(after.getEvents());}
+        CLEventList[] events = new CLEventList[]{new CLEventList(1)};
+        queue.putReadBuffer(buffer, false, condition, events[0]);
+        queue.flush();
+        
+        return new PipelineFuture(events, new Runnable(){
+            @Override
+            public void run(){
+                buffer.getBuffer().get(dest, 0, size);
+                // Need to rewind to start at same position after reads especially if partial
+                buffer.getBuffer().rewind();
+            }
+        });
+    }
+    
+    /**
+    *           readFloatBufferAsync enqueues a non blocking read of the device 
+    *   buffer. Once the future completes the first size values are in dest.
+    * 
+    * @param kernelname - kernel to retrieve buffer from
+    * @param argn - argument number 
+    * @param dest - array to fill, at least size long
+    * @param size - size of buffer to retrieve 
+    * @param after - commands to wait for before reading, null for none
+    * @return future which fills dest when it completes
+    */
+    public PipelineFuture readFloatBufferAsync(String kernelname,int argn, final float[] dest,
+            final int size, PipelineFuture after){
+        final CLBuffer<FloatBuffer> buffer=flBuffers.get(kernelname).get(argn);
+        
+        CLEventList condition = null;
+        if(after != null && !after.isDone()){condition = new CLEventList(after.getEvents());}
+        CLEventList[] events = new CLEventList[]{new CLEventList(1)};
+        queue.putReadBuffer(buffer, false, condition, events[0]);
+        queue.flush();
+        
+        return new PipelineFuture(events, new Runnable(){
+            @Override
+            public void run(){
+                buffer.getBuffer().get(dest, 0, size);
+                // Need to rewind to start at same position after reads especially if partial
+                buffer.getBuffer().rewind();
+            }
+        });
+    }
+    
     /**
     *       setKernelArg sets the arguments of the given kernel by using 
     *   the arguments parsed from source.
@@ -912,6 +1747,14 @@ public class OpenCLHandler {
         return (int) mbused;
     }
     
+    /**
+    *       getMaxConstantBufferSize gives the largest __constant buffer the 
+    *   device takes in bytes.
+    */
+    public long getMaxConstantBufferSize(){
+        return device.getMaxConstantBufferSize();
+    }
+    
     /**
     *       closeOpenCL releases the OpenCL context.
     */
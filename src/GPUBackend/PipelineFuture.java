@@ -0,0 +1,134 @@
+package GPUBackend;
+/*
+ *   @(#)   PipelineFuture
+ */
+
+import com.jogamp.opencl.CLEvent;
+import com.jogamp.opencl.CLEventList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+*      PipelineFuture is the host handle on an enqueued KernelPipeline. It
+*   holds the event of every stage so the host can poll or wait on the
+*   launches while doing other work, and later pipelines can wait on it.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class PipelineFuture implements Future<Void> {
+    private CLEventList[] stageEvents;
+    private Runnable onComplete;
+    private boolean released = false;
+
+    /**
+    *       PipelineFuture wraps the events of an enqueued pipeline.
+    *
+    * @param events - one event list per stage
+    */
+    public PipelineFuture(CLEventList[] events){
+        this(events, null);
+    }
+
+    /**
+    *       PipelineFuture wraps the events of enqueued commands and a host action
+    *   to run once they have completed, such as copying out a read buffer.
+    *
+    * @param events - one event list per stage
+    * @param completion - run by get after the events complete, null for none
+    */
+    public PipelineFuture(CLEventList[] events, Runnable completion){
+        stageEvents = events;
+        onComplete = completion;
+    }
+
+    /**
+    *       getStageEvent gives the completion event of a stage.
+    *
+    * @param stage - stage index
+    */
+    public CLEvent getStageEvent(int stage){
+        return stageEvents[stage].getEvent(0);
+    }
+
+    /**
+    *       getLastEvent gives the completion event of the final stage.
+    */
+    public CLEvent getLastEvent(){
+        return getStageEvent(stageEvents.length-1);
+    }
+
+    /**
+    *       getEvents gives the completion events of all stages.
+    */
+    public CLEvent[] getEvents(){
+        CLEvent[] events = new CLEvent[stageEvents.length];
+        for(int i = 0;i < events.length;i++){
+            events[i] = getStageEvent(i);
+        }
+        return events;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning){
+        // enqueued OpenCL commands can not be taken back
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled(){
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone(){
+        if(released){return true;}
+        for(int i = 0;i < stageEvents.length;i++){
+            if(!stageEvents[i].getEvent(0).isComplete()){return false;}
+        }
+        return true;
+    }
+
+    /**
+    *       get blocks until every stage has completed, runs the completion 
+    *   action then releases the events.
+    */
+    @Override
+    public synchronized Void get(){
+        if(released){return null;}
+        for(int i = 0;i < stageEvents.length;i++){
+            stageEvents[i].waitForEvents();
+        }
+        if(onComplete != null){onComplete.run();}
+        release();
+        return null;
+    }
+
+    /**
+    *       get polls until every stage has completed or the timeout passes.
+    */
+    @Override
+    public synchronized Void get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException{
+        long end = System.nanoTime()+unit.toNanos(timeout);
+        while(!isDone()){
+            if(System.nanoTime() > end){throw new TimeoutException();}
+            Thread.sleep(1);
+        }
+        return get();
+    }
+
+    /**
+    *       release frees the OpenCL events, after this the future counts as done.
+    *   The completion action is not run.
+    */
+    public synchronized void release(){
+        if(released){return;}
+        for(int i = 0;i < stageEvents.length;i++){
+            stageEvents[i].release();
+        }
+        released = true;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *   gillespie_network runs nReactions reactions of any reaction network per
+ *   work-item per launch, or stops early once tHorizon of simulated time has
+ *   passed when tHorizon > 0. The network comes in as tables built by 
+ *   ReactionNetwork: per reaction the rate law code, modifier, reactants 
+ *   (rxnInfo), the rate, K and n (rxnParam) and the net change of every species
+ *   (stoich). Species counts of a system are interleaved in state. A system
+ *   whose switchSpecies count goes above switchThreshold appends the system id,
+ *   switch time and reaction count to the event buffers and restarts from
+ *   initState.
+ */
+
+#define MAX_SPECIES 16
+#define MAX_RXN 32
+#define INFO_STRIDE 7
+#define PARAM_STRIDE 3
+#define HILL_ACTIVATION 1
+#define HILL_REPRESSION 2
+
+__kernel void gillespie_network(__global int *state,__global float *time,
+            __global const int *rxnInfo,__global const float *rxnParam,
+            __global const int *stoich,__global const int *initState,
+            __global uint *rngState,__global int *nReact,
+            __global int *eventCount,__global int *eventInfo,__global float *eventTime,
+            int nSpecies, int nRxn, int switchSpecies, int switchThreshold,
+            int nReactions, float tHorizon, int eventCapacity, int nElements) {
+
+    // Get the index of the current element to be processed
+    int currSys = get_global_id(0);
+
+    // bound check, equivalent to the limit on a 'for' loop
+    if (currSys >= nElements)  {
+        return;
+    }
+
+    // load state into registers
+    int counts[MAX_SPECIES];
+    float props[MAX_RXN];
+    for(int s = 0; s < nSpecies; s++){
+        counts[s] = state[currSys*nSpecies+s];
+    }
+    float currTime = time[currSys];
+    float elapsed = 0.0f;
+    int reactCurr = nReact[currSys];
+
+    // load rng state
+    uint x = rngState[currSys*4+0];
+    uint y = rngState[currSys*4+1];
+    uint z = rngState[currSys*4+2];
+    uint w = rngState[currSys*4+3];
+    uint t;
+
+    for(int k = 0; k < nReactions; k++){
+        // propensities from the reaction tables
+        float rCurr = 0.0f;
+        for(int r = 0; r < nRxn; r++){
+            int base = r*INFO_STRIDE;
+            float prop = rxnParam[r*PARAM_STRIDE];
+            for(int j = 0; j < rxnInfo[base+2]; j++){
+                int c = counts[rxnInfo[base+3+2*j]];
+                int nu = rxnInfo[base+4+2*j];
+                for(int m = 0; m < nu; m++){
+                    prop = prop*((float)(c-m))/((float)(m+1));
+                }
+            }
+            int law = rxnInfo[base];
+            if(law == HILL_ACTIVATION || law == HILL_REPRESSION){
+                float h = pow(counts[rxnInfo[base+1]]/rxnParam[r*PARAM_STRIDE+1],
+                        rxnParam[r*PARAM_STRIDE+2]);
+                prop = (law == HILL_ACTIVATION) ? prop*h/(1.0f+h) : prop/(1.0f+h);
+            }
+            props[r] = prop;
+            rCurr = rCurr+prop;
+        }
+
+        // nothing can fire
+        if(rCurr <= 0.0f){
+            break;
+        }
+
+        // a (0,1] uniform for the time and a [0,1) uniform for the reaction,
+        // from the top 24 bits so the float conversion is exact
+        t = x ^ (x << 11); x = y; y = z; z = w;
+        w = w ^ (w >> 19) ^ t ^ (t >> 8);
+        float ran1 = ((float)(w >> 8) + 1.0f) * (1.0f/16777216.0f);
+        t = x ^ (x << 11); x = y; y = z; z = w;
+        w = w ^ (w >> 19) ^ t ^ (t >> 8);
+        float ran2 = (float)(w >> 8) * (1.0f/16777216.0f);
+
+        // update time
+        float dt = -1.0f*log(ran1)/rCurr;
+        currTime = currTime+dt;
+        elapsed = elapsed+dt;
+
+        // Determine process to update, the last reaction able to fire takes
+        // rounding so no count goes below 0
+        float u = ran2*rCurr;
+        int fired = nRxn-1;
+        while(fired > 0 && props[fired] <= 0.0f){
+            fired--;
+        }
+        float cumul = 0.0f;
+        for(int r = 0; r < fired; r++){
+            cumul = cumul+props[r];
+            if(u < cumul){
+                fired = r;
+                break;
+            }
+        }
+        for(int s = 0; s < nSpecies; s++){
+            counts[s] = counts[s]+stoich[fired*nSpecies+s];
+        }
+        reactCurr = reactCurr+1;
+
+        // Determine if transitioned. record event and reset system if so
+        if(switchSpecies >= 0 && counts[switchSpecies] > switchThreshold){
+            int slot = atomic_inc(eventCount);
+            if(slot < eventCapacity){
+                eventInfo[slot*2] = currSys;
+                eventInfo[slot*2+1] = reactCurr;
+                eventTime[slot] = currTime;
+            }
+            reactCurr = 0;
+            for(int s = 0; s < nSpecies; s++){
+                counts[s] = initState[s];
+            }
+            currTime = 0.0f;
+        }
+
+        if(tHorizon > 0.0f && elapsed >= tHorizon){
+            break;
+        }
+    }
+
+    // write back state
+    for(int s = 0; s < nSpecies; s++){
+        state[currSys*nSpecies+s] = counts[s];
+    }
+    time[currSys] = currTime;
+    nReact[currSys] = reactCurr;
+    rngState[currSys*4+0] = x;
+    rngState[currSys*4+1] = y;
+    rngState[currSys*4+2] = z;
+    rngState[currSys*4+3] = w;
+}
@@ -1,65 +1,93 @@
-__kernel void gillespie_switch(__global int *p1,__global int *p2,__global float *time,
-            __global const float *sysParam,__global float * ran,__global float *tMeasured, int nElements) {
-
-    // Get the index of the current element to be processed
-    int currSys = get_global_id(0);
-
-    // bound check, equivalent to the limit on a 'for' loop
-    if (currSys >= nElements)  {
-        return;
-    }
-
-    // get parameters
-    int nparams = 10;
-    float alpha1 =  sysParam[currSys*nparams+0];
-    float alpha2 = sysParam[currSys*nparams+1];
-    float tau1 = sysParam[currSys*nparams+2];
-    float tau2 = sysParam[currSys*nparams+3];
-    float n1 = sysParam[currSys*nparams+4];
-    float n2 = sysParam[currSys*nparams+5];
-    float kappa1 = sysParam[currSys*nparams+6];
-    float kappa2 = sysParam[currSys*nparams+7];
-    int p1init = (int) sysParam[currSys*nparams+8];
-    int p2init = (int) sysParam[currSys*nparams+9];
-
-    // Calculate R ? Does this happen before time update
-    float rtemp = 0.0f;
-    
-        // birth
-        rtemp = rtemp+ alpha1/(1+pow(p2[currSys]/kappa2,n1)); 
-        rtemp = rtemp+ alpha2/(1+pow(p1[currSys]/kappa1,n2));
-    
-        // death 
-        rtemp = rtemp+ p1[currSys]/tau1; 
-        rtemp = rtemp+ p2[currSys]/tau2;
-    
-        float rCurr = rtemp;
-
-        float r1 = (alpha1/(1+pow(p2[currSys]/kappa2,n1)))/rCurr;
-        float r2 = r1+(alpha2/(1+pow(p1[currSys]/kappa1,n2)))/rCurr;
-        float r3 = r2+(p1[currSys]/tau1)/rCurr;
-
-    // update time
-    time[currSys] = time[currSys]-1.0*log(ran[currSys*2])/rCurr;
-    float currTime = time[currSys];
-
-    // Determine process to update
-        if(ran[currSys*2+1] < r1){
-            p1[currSys] = p1[currSys]+1;
-        }else if(r1 < ran[currSys*2+1]  && ran[currSys*2+1] < r2){
-            p2[currSys] = p2[currSys]+1;
-        }else if(r2 < ran[currSys*2+1]  && ran[currSys*2+1] < r3){
-            p1[currSys] = p1[currSys]-1;
-        }else{
-            p2[currSys] = p2[currSys]-1;
-        }
-
-
-    // Determine if transitioned. reset system if so
-    if(p2[currSys] > p1init){
-        tMeasured[currSys] = currTime;
-        p1[currSys] = p1init;
-        p2[currSys] = p2init;
-        time[currSys] = 0.0f;
-    }
-}
+__kernel void gillespie_switch(__global int *p1,__global int *p2,__global float *time,
+            __constant float *sysParam,__global float * ran,__global int *nReact,
+            __global int *eventCount,__global int *eventInfo,__global float *eventTime,
+            __global const int *paramIndex,__constant float *hillTable,__global int *tableMiss,
+            int eventCapacity, int nElements, int tableSize) {
+
+    // Get the index of the current element to be processed
+    int currSys = get_global_id(0);
+
+    // bound check, equivalent to the limit on a 'for' loop
+    if (currSys >= nElements)  {
+        return;
+    }
+
+    // get parameters of this system's row in the parameter table
+    int nparams = 10;
+    int pset = paramIndex[currSys];
+    float alpha1 =  sysParam[pset*nparams+0];
+    float alpha2 = sysParam[pset*nparams+1];
+    float tau1 = sysParam[pset*nparams+2];
+    float tau2 = sysParam[pset*nparams+3];
+    float n1 = sysParam[pset*nparams+4];
+    float n2 = sysParam[pset*nparams+5];
+    float kappa1 = sysParam[pset*nparams+6];
+    float kappa2 = sysParam[pset*nparams+7];
+    int p1init = (int) sysParam[pset*nparams+8];
+    int p2init = (int) sysParam[pset*nparams+9];
+
+    // birth propensities from the Hill table of this parameter set, one row
+    // per protein indexed by the repressor count. Outside the table use pow,
+    // past its end also record the count so the host can grow the table
+    int p1Curr = p1[currSys];
+    int p2Curr = p2[currSys];
+    float a1;
+    float a2;
+    if(p2Curr >= 0 && p2Curr < tableSize){
+        a1 = hillTable[(pset*2)*tableSize+p2Curr];
+    }else{
+        a1 = alpha1/(1+pow(p2Curr/kappa2,n1));
+        atomic_max(tableMiss, p2Curr);
+    }
+    if(p1Curr >= 0 && p1Curr < tableSize){
+        a2 = hillTable[(pset*2+1)*tableSize+p1Curr];
+    }else{
+        a2 = alpha2/(1+pow(p1Curr/kappa1,n2));
+        atomic_max(tableMiss, p1Curr);
+    }
+
+    // Calculate R
+        float a3 = p1Curr/tau1;
+        float a4 = p2Curr/tau2;
+        float rCurr = a1+a2+a3+a4;
+
+    // update time
+    time[currSys] = time[currSys]-1.0*log(ran[currSys*2])/rCurr;
+    float currTime = time[currSys];
+
+    // Determine process to update, u in [0,rCurr) from a (0,1] uniform. u can
+    // round past the sum, that falls to the last reaction able to fire so no
+    // count goes below 0
+        float u = (1.0f-ran[currSys*2+1])*rCurr;
+        if(u < a1){
+            p1[currSys] = p1[currSys]+1;
+        }else if(u < a1+a2){
+            p2[currSys] = p2[currSys]+1;
+        }else if(u < a1+a2+a3){
+            p1[currSys] = p1[currSys]-1;
+        }else if(a4 > 0.0f){
+            p2[currSys] = p2[currSys]-1;
+        }else if(a3 > 0.0f){
+            p1[currSys] = p1[currSys]-1;
+        }else{
+            p2[currSys] = p2[currSys]+1;
+        }
+    nReact[currSys] = nReact[currSys]+1;
+
+
+    // Determine if transitioned. record event and reset system if so
+    if(p2[currSys] > p1init){
+        // append system id, switch time and reaction count, the count keeps
+        // going past capacity so the host can tell events were dropped
+        int slot = atomic_inc(eventCount);
+        if(slot < eventCapacity){
+            eventInfo[slot*2] = currSys;
+            eventInfo[slot*2+1] = nReact[currSys];
+            eventTime[slot] = currTime;
+        }
+        nReact[currSys] = 0;
+        p1[currSys] = p1init;
+        p2[currSys] = p2init;
+        time[currSys] = 0.0f;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *   gillespie_switch_multi runs nReactions reactions of the toggle switch per
+ *   work-item per launch, or stops early once tHorizon of simulated time has
+ *   passed when tHorizon > 0. State is held in registers for the whole loop
+ *   and random numbers are made in registers from the xorshift128 state kept
+ *   per system in rngState, so only the final state, the advanced rng state
+ *   and any switch events go back to global memory. Each switch appends the
+ *   system id, switch time and reaction count to the event buffers.
+ *   Parameters come from a compact table in constant memory with one row per
+ *   parameter set, paramIndex gives the row of every system.
+ *   Birth propensities come from hillTable, two rows of tableSize entries per
+ *   parameter set indexed by the repressor count. Counts outside the table
+ *   fall back to pow, those past its end are recorded in tableMiss so the host
+ *   can grow the table.
+ */
+
+__kernel void gillespie_switch_multi(__global int *p1,__global int *p2,__global float *time,
+            __constant float *sysParam,__global uint *rngState,__global int *nReact,
+            __global int *eventCount,__global int *eventInfo,__global float *eventTime,
+            __global const int *paramIndex,__constant float *hillTable,__global int *tableMiss,
+            int nReactions, float tHorizon, int eventCapacity, int nElements, int tableSize) {
+
+    // Get the index of the current element to be processed
+    int currSys = get_global_id(0);
+
+    // bound check, equivalent to the limit on a 'for' loop
+    if (currSys >= nElements)  {
+        return;
+    }
+
+    // get parameters of this system's row in the parameter table
+    int nparams = 10;
+    int pset = paramIndex[currSys];
+    float alpha1 =  sysParam[pset*nparams+0];
+    float alpha2 = sysParam[pset*nparams+1];
+    float tau1 = sysParam[pset*nparams+2];
+    float tau2 = sysParam[pset*nparams+3];
+    float n1 = sysParam[pset*nparams+4];
+    float n2 = sysParam[pset*nparams+5];
+    float kappa1 = sysParam[pset*nparams+6];
+    float kappa2 = sysParam[pset*nparams+7];
+    int p1init = (int) sysParam[pset*nparams+8];
+    int p2init = (int) sysParam[pset*nparams+9];
+
+    // load state into registers
+    int p1Curr = p1[currSys];
+    int p2Curr = p2[currSys];
+    float currTime = time[currSys];
+    float elapsed = 0.0f;
+    int reactCurr = nReact[currSys];
+    int missCurr = -1;
+
+    // load rng state
+    uint x = rngState[currSys*4+0];
+    uint y = rngState[currSys*4+1];
+    uint z = rngState[currSys*4+2];
+    uint w = rngState[currSys*4+3];
+    uint t;
+
+    for(int k = 0; k < nReactions; k++){
+        // birth and death propensities
+        float a1;
+        float a2;
+        if(p2Curr >= 0 && p2Curr < tableSize){
+            a1 = hillTable[(pset*2)*tableSize+p2Curr];
+        }else{
+            a1 = alpha1/(1+pow(p2Curr/kappa2,n1));
+            missCurr = max(missCurr, p2Curr);
+        }
+        if(p1Curr >= 0 && p1Curr < tableSize){
+            a2 = hillTable[(pset*2+1)*tableSize+p1Curr];
+        }else{
+            a2 = alpha2/(1+pow(p1Curr/kappa1,n2));
+            missCurr = max(missCurr, p1Curr);
+        }
+        float a3 = p1Curr/tau1;
+        float a4 = p2Curr/tau2;
+        float rCurr = a1+a2+a3+a4;
+
+        // nothing can fire
+        if(rCurr <= 0.0f){
+            break;
+        }
+
+        // a (0,1] uniform for the time and a [0,1) uniform for the reaction,
+        // from the top 24 bits so the float conversion is exact
+        t = x ^ (x << 11); x = y; y = z; z = w;
+        w = w ^ (w >> 19) ^ t ^ (t >> 8);
+        float ran1 = ((float)(w >> 8) + 1.0f) * (1.0f/16777216.0f);
+        t = x ^ (x << 11); x = y; y = z; z = w;
+        w = w ^ (w >> 19) ^ t ^ (t >> 8);
+        float ran2 = (float)(w >> 8) * (1.0f/16777216.0f);
+
+        // update time
+        float dt = -1.0f*log(ran1)/rCurr;
+        currTime = currTime+dt;
+        elapsed = elapsed+dt;
+
+        // Determine process to update. u can round past the sum, that falls
+        // to the last reaction able to fire so no count goes below 0
+        float u = ran2*rCurr;
+        if(u < a1){
+            p1Curr = p1Curr+1;
+        }else if(u < a1+a2){
+            p2Curr = p2Curr+1;
+        }else if(u < a1+a2+a3){
+            p1Curr = p1Curr-1;
+        }else if(a4 > 0.0f){
+            p2Curr = p2Curr-1;
+        }else if(a3 > 0.0f){
+            p1Curr = p1Curr-1;
+        }else if(a2 > 0.0f){
+            p2Curr = p2Curr+1;
+        }else{
+            p1Curr = p1Curr+1;
+        }
+        reactCurr = reactCurr+1;
+
+        // Determine if transitioned. record event and reset system if so
+        if(p2Curr > p1init){
+            int slot = atomic_inc(eventCount);
+            if(slot < eventCapacity){
+                eventInfo[slot*2] = currSys;
+                eventInfo[slot*2+1] = reactCurr;
+                eventTime[slot] = currTime;
+            }
+            reactCurr = 0;
+            p1Curr = p1init;
+            p2Curr = p2init;
+            currTime = 0.0f;
+        }
+
+        if(tHorizon > 0.0f && elapsed >= tHorizon){
+            break;
+        }
+    }
+
+    // write back state
+    p1[currSys] = p1Curr;
+    p2[currSys] = p2Curr;
+    time[currSys] = currTime;
+    nReact[currSys] = reactCurr;
+    rngState[currSys*4+0] = x;
+    rngState[currSys*4+1] = y;
+    rngState[currSys*4+2] = z;
+    rngState[currSys*4+3] = w;
+    // one atomic per work-item for counts past the Hill table
+    if(missCurr >= 0){
+        atomic_max(tableMiss, missCurr);
+    }
+}
@@ -40,7 +40,8 @@ __kernel void mersenne_twister(__global float* d_Rand,
     unsigned int mt[MT_NN]; 
 
     //Initialize current state
-    mt[0] = seed+((globalID+seed2)%globalID);
+    // distinct start per work-item, the old (globalID+seed2)%globalID divided by zero
+    mt[0] = seed ^ (1812433253U*((unsigned int)globalID+1U) + seed2);
     for (iState = 1; iState < MT_NN; iState++)
         mt[iState] = (1812433253U * (mt[iState - 1] ^ (mt[iState - 1] >> 30)) + iState) & MT_WMASK;
 
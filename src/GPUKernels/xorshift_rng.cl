@@ -0,0 +1,40 @@
+/*
+ *   xorshift_rng advances a persistent xorshift128 state per system and writes
+ *   nPerRng (0,1] floats for that system. The 4 state words of every system
+ *   live in rngState between launches, so the host seeds once at start up and
+ *   never has to push seeds again.
+ */
+
+__kernel void xorshift_rng(__global uint *rngState, __global float *d_Rand,
+            int nPerRng, int nElements) {
+
+    // Get the index of the current element to be processed
+    int currSys = get_global_id(0);
+
+    // bound check, equivalent to the limit on a 'for' loop
+    if (currSys >= nElements)  {
+        return;
+    }
+
+    // load state into registers
+    uint x = rngState[currSys*4+0];
+    uint y = rngState[currSys*4+1];
+    uint z = rngState[currSys*4+2];
+    uint w = rngState[currSys*4+3];
+    uint t;
+
+    for(int i = 0; i < nPerRng; i++){
+        t = x ^ (x << 11);
+        x = y; y = z; z = w;
+        w = w ^ (w >> 19) ^ t ^ (t >> 8);
+
+        //Convert the top 24 bits to an exact (0, 1] float and write to global memory
+        d_Rand[currSys*nPerRng+i] = ((float)(w >> 8) + 1.0f) * (1.0f/16777216.0f);
+    }
+
+    // store state for the next launch
+    rngState[currSys*4+0] = x;
+    rngState[currSys*4+1] = y;
+    rngState[currSys*4+2] = z;
+    rngState[currSys*4+3] = w;
+}
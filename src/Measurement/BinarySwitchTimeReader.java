@@ -0,0 +1,243 @@
+package Measurement;
+/*
+ *   @(#)   BinarySwitchTimeReader
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+*      BinarySwitchTimeReader reads files written by BinarySwitchTimeWriter
+*   through memory mapped windows of the file. Run main on a file to print its
+*   header and a summary of the switch times.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class BinarySwitchTimeReader {
+    private static final long MAP_CHUNK = 64L*1024L*1024L;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+    private long dataStart;
+    private int schemaVersion;
+    private int numSystems;
+    private long seed;
+    private long created;
+    private float[] parameters;
+    private long totalEvents;
+
+    /**
+    *       BinarySwitchTimeReader opens a file and reads its header.
+    *
+    * @param filename - file to read
+    */
+    public BinarySwitchTimeReader(String filename) throws IOException{
+        file = new RandomAccessFile(filename, "r");
+        channel = file.getChannel();
+
+        mapAt(0, Math.min(channel.size(), 36));
+        if(channel.size() < 36 || window.getInt() != BinarySwitchTimeWriter.MAGIC){
+            close();
+            throw new IOException(filename+" is not a switch time file.");
+        }
+        schemaVersion = window.getInt();
+        if(schemaVersion > BinarySwitchTimeWriter.SCHEMA_VERSION){
+            close();
+            throw new IOException(filename+" has unknown schema version "+schemaVersion);
+        }
+        int headerBytes = window.getInt();
+        numSystems = window.getInt();
+        seed = window.getLong();
+        created = window.getLong();
+        int nParams = window.getInt();
+
+        mapAt(36, headerBytes-36);
+        parameters = new float[nParams];
+        for(int i = 0;i < nParams;i++){parameters[i] = window.getFloat();}
+        totalEvents = window.getLong();
+
+        dataStart = headerBytes;
+        rewind();
+    }
+
+    /**
+    *       mapAt maps a read only window of the file.
+    *
+    * @param start - file offset of the window
+    * @param bytes - size of the window
+    */
+    private void mapAt(long start, long bytes) throws IOException{
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, bytes);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+    *       ensureWindow maps the next window if the given bytes at the current
+    *   position are not in the current one.
+    *
+    * @param bytes - bytes about to be read
+    * @return false if the file ends first
+    */
+    private boolean ensureWindow(long bytes) throws IOException{
+        if(position+bytes > channel.size()){return false;}
+        if(position+bytes > windowStart+window.capacity() || position < windowStart){
+            mapAt(position, Math.min(channel.size()-position, Math.max(MAP_CHUNK, bytes)));
+        }
+        window.position((int)(position-windowStart));
+        return true;
+    }
+
+    /**
+    *       rewind goes back to the first block.
+    */
+    public void rewind(){
+        position = dataStart;
+    }
+
+    /**
+    *       nextBlockSize gives the event count of the next block without
+    *   reading it.
+    *
+    * @return events in the next block, 0 at the end of the data
+    */
+    public int nextBlockSize() throws IOException{
+        if(!ensureWindow(4)){return 0;}
+        return window.getInt();
+    }
+
+    /**
+    *       readBlock reads the next block into the given arrays, which have to
+    *   hold nextBlockSize events. Any array can be null to skip that column.
+    *
+    * @param times - switch times
+    * @param sysIds - system ids, -1 if not recorded
+    * @param reactions - reaction counts, -1 if not recorded
+    * @return events read, 0 at the end of the data
+    */
+    public int readBlock(float[] times, int[] sysIds, int[] reactions) throws IOException{
+        int n = nextBlockSize();
+        if(n <= 0 || !ensureWindow(4L+12L*n)){return 0;}
+        window.getInt();
+
+        int column = window.position();
+        if(times != null){
+            for(int i = 0;i < n;i++){times[i] = window.getFloat();}
+        }
+        window.position(column+4*n);
+        if(sysIds != null){
+            for(int i = 0;i < n;i++){sysIds[i] = window.getInt();}
+        }
+        window.position(column+8*n);
+        if(reactions != null){
+            for(int i = 0;i < n;i++){reactions[i] = window.getInt();}
+        }
+
+        position += 4L+12L*n;
+        return n;
+    }
+
+    /**
+    *       readAllTimes reads the switch time column of the whole file.
+    */
+    public float[] readAllTimes() throws IOException{
+        rewind();
+        float[] all = new float[(int)Math.max(totalEvents, 1024)];
+        float[] block = new float[0];
+        int count = 0;
+        int n;
+        while((n = nextBlockSize()) > 0){
+            if(block.length < n){block = new float[n];}
+            readBlock(block, null, null);
+            if(count+n > all.length){
+                float[] grown = new float[Math.max(all.length*2, count+n)];
+                System.arraycopy(all, 0, grown, 0, count);
+                all = grown;
+            }
+            System.arraycopy(block, 0, all, count, n);
+            count += n;
+        }
+        float[] times = new float[count];
+        System.arraycopy(all, 0, times, 0, count);
+        return times;
+    }
+
+    public int getSchemaVersion(){return schemaVersion;}
+    public int getNumSystems(){return numSystems;}
+    public long getSeed(){return seed;}
+    public long getCreated(){return created;}
+    public float[] getParameters(){return parameters;}
+
+    /**
+    *       getTotalEvents gives the event count in the header, 0 if the writer
+    *   was not closed.
+    */
+    public long getTotalEvents(){return totalEvents;}
+
+    /**
+    *       close releases the file.
+    */
+    public void close(){
+        window = null;
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+    *       main prints the header and a summary of a switch time file.
+    *
+    * @param args - file to summarize, optionally "-dump" to print every event
+    */
+    public static void main(String[] args) throws IOException{
+        if(args.length < 1){
+            System.out.println("Usage: BinarySwitchTimeReader <file> [-dump]");
+            return;
+        }
+        BinarySwitchTimeReader reader = new BinarySwitchTimeReader(args[0]);
+        boolean dump = (args.length > 1 && args[1].equals("-dump"));
+
+        System.out.println("Schema version : "+reader.getSchemaVersion());
+        System.out.println("Systems        : "+reader.getNumSystems());
+        System.out.println("Seed           : "+reader.getSeed());
+        System.out.println("Created        : "+new java.util.Date(reader.getCreated()));
+        System.out.print("Parameters     :");
+        for(int i = 0;i < reader.getParameters().length;i++){
+            System.out.print(" "+reader.getParameters()[i]);
+        }
+        System.out.println();
+
+        float[] times = new float[0];
+        int[] ids = new int[0];
+        int[] reactions = new int[0];
+        long count = 0;
+        double sum = 0;
+        int n;
+        while((n = reader.nextBlockSize()) > 0){
+            if(times.length < n){
+                times = new float[n];
+                ids = new int[n];
+                reactions = new int[n];
+            }
+            reader.readBlock(times, ids, reactions);
+            for(int i = 0;i < n;i++){
+                sum += times[i];
+                if(dump){System.out.println(ids[i]+"    "+reactions[i]+"    "+times[i]);}
+            }
+            count += n;
+        }
+        System.out.println("Events         : "+count);
+        if(count > 0){System.out.println("Mean time      : "+(sum/count));}
+        reader.close();
+    }
+}
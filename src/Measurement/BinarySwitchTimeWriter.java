@@ -0,0 +1,206 @@
+package Measurement;
+/*
+ *   @(#)   BinarySwitchTimeWriter
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+*      BinarySwitchTimeWriter writes switch events into a little endian binary
+*   file, every block through a memory mapped window of exactly its size, so
+*   the file never holds more than the data and needs no trimming while a
+*   window is still mapped.
+*
+*   <br>
+*   Layout: a header with the magic number, schema version, header size,
+*   number of systems, seed, creation time, model parameters and total event
+*   count, followed by one block per harvest. A block is the event count n
+*   then n float switch times, n int system ids and n int reaction counts.
+*   A block with n = 0 or the end of the file ends the data.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class BinarySwitchTimeWriter implements SwitchTimeSink {
+    public static final int MAGIC = 0x47535754;
+    public static final int SCHEMA_VERSION = 1;
+    // windows kept mapped until forced, bounds the mappings held open
+    private static final int MAX_UNFORCED = 256;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    // windows written since the last flush, forced by the next one
+    private ArrayList<MappedByteBuffer> unforced = new ArrayList<MappedByteBuffer>();
+    private long position;
+    private long totalOffset;
+    private long totalEvents = 0;
+
+    /**
+    *       BinarySwitchTimeWriter creates the file and writes the header.
+    *
+    * @param filename - file to create, replaced if it exists
+    * @param params - model parameters of the run
+    * @param seed - seed of the run
+    * @param numSystems - number of systems simulated
+    */
+    public BinarySwitchTimeWriter(String filename, float[] params, long seed, int numSystems) throws IOException{
+        file = new RandomAccessFile(filename, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+
+        int headerBytes = 44+4*params.length;
+        ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(SCHEMA_VERSION);
+        header.putInt(headerBytes);
+        header.putInt(numSystems);
+        header.putLong(seed);
+        header.putLong(System.currentTimeMillis());
+        header.putInt(params.length);
+        for(int i = 0;i < params.length;i++){header.putFloat(params[i]);}
+        totalOffset = header.position();
+        header.putLong(0L);
+        header.flip();
+        while(header.hasRemaining()){channel.write(header, header.position());}
+
+        position = headerBytes;
+    }
+
+    /**
+    *       BinarySwitchTimeWriter reopens a file to append after a resume.
+    *   Anything past the position, written after the checkpoint, is cut off.
+    *
+    * @param filename - existing switch time file
+    * @param pos - end of the data at the checkpoint
+    * @param events - events written up to the position
+    */
+    public BinarySwitchTimeWriter(String filename, long pos, long events) throws IOException{
+        file = new RandomAccessFile(filename, "rw");
+        channel = file.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        while(header.hasRemaining() && channel.read(header, header.position()) > 0){}
+        header.flip();
+        if(header.remaining() < 12 || header.getInt() != MAGIC){
+            file.close();
+            throw new IOException(filename+" is not a switch time file.");
+        }
+        header.getInt();
+        int headerBytes = header.getInt();
+        if(pos < headerBytes || pos > channel.size()){
+            file.close();
+            throw new IOException(filename+" is shorter than the checkpoint position "+pos);
+        }
+        totalOffset = headerBytes-8;
+        channel.truncate(pos);
+        position = pos;
+        totalEvents = events;
+    }
+
+    /**
+    *       addEvents appends one block with the given events.
+    */
+    @Override
+    public synchronized void addEvents(float[] times, int[] info, int n){
+        if(n <= 0){return;}
+        MappedByteBuffer window = map(4L+12L*n);
+
+        window.putInt(n);
+        for(int i = 0;i < n;i++){window.putFloat(times[i]);}
+        for(int i = 0;i < n;i++){window.putInt((info == null) ? -1 : info[i*2]);}
+        for(int i = 0;i < n;i++){window.putInt((info == null) ? -1 : info[i*2+1]);}
+        unforced.add(window);
+        if(unforced.size() >= MAX_UNFORCED){forceWindows();}
+
+        position += 4L+12L*n;
+        totalEvents += n;
+    }
+
+    /**
+    *       map maps the next bytes of the file, growing it by exactly them.
+    *
+    * @param bytes - bytes about to be written
+    */
+    private MappedByteBuffer map(long bytes){
+        try {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, position, bytes);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            return window;
+        } catch (IOException e) {
+            throw new RuntimeException("Could not map switch time file.", e);
+        }
+    }
+
+    /**
+    *       forceWindows writes the windows filled since the last flush to disk.
+    */
+    private void forceWindows(){
+        for(int i = 0;i < unforced.size();i++){unforced.get(i).force();}
+        unforced.clear();
+    }
+
+    /**
+    *       getTotalEvents gives the number of events written so far.
+    */
+    public synchronized long getTotalEvents(){
+        return totalEvents;
+    }
+
+    /**
+    *       getPosition gives the end of the data written so far.
+    */
+    public synchronized long getPosition(){
+        return position;
+    }
+
+    /**
+    *       flush forces the data written so far and the event count to disk,
+    *   as a checkpoint needs.
+    */
+    public synchronized void flush(){
+        if(channel == null){return;}
+        try {
+            forceWindows();
+            ByteBuffer total = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            total.putLong(totalEvents);
+            total.flip();
+            channel.write(total, totalOffset);
+            channel.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+    *       close writes the total event count, flushes and closes the file,
+    *   which is closed even if writing fails.
+    */
+    @Override
+    public synchronized void close(){
+        if(channel == null){return;}
+        try {
+            forceWindows();
+            ByteBuffer total = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            total.putLong(totalEvents);
+            total.flip();
+            channel.write(total, totalOffset);
+            channel.force(true);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+}
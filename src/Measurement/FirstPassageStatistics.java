@@ -0,0 +1,180 @@
+package Measurement;
+/*
+ *   @(#)   FirstPassageStatistics
+ */
+
+import java.io.PrintStream;
+
+/**
+*      FirstPassageStatistics keeps running statistics of the switch times
+*   instead of the times themselves: Welford mean and variance, extremes, a
+*   histogram with logarithmic bins and P-square quantile estimates. Memory
+*   does not grow with the number of events.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class FirstPassageStatistics implements SwitchTimeSink {
+    private static final double[] DEFAULT_QUANTILES = {0.05, 0.25, 0.5, 0.75, 0.95};
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double logMinTime;
+    private int binsPerDecade;
+    private long[] histogram;
+    private P2Quantile[] quantiles;
+
+    /**
+    *       FirstPassageStatistics creates an accumulator with bins from 1e-3
+    *   to 1e6, ten per decade.
+    */
+    public FirstPassageStatistics(){
+        this(1e-3, 9, 10);
+    }
+
+    /**
+    *       FirstPassageStatistics creates an accumulator.
+    *
+    * @param minTime - lower edge of the first bin
+    * @param decades - decades covered by the histogram
+    * @param binsperdecade - bins in every decade
+    */
+    public FirstPassageStatistics(double minTime, int decades, int binsperdecade){
+        logMinTime = Math.log10(minTime);
+        binsPerDecade = binsperdecade;
+        // first and last bins take under and overflow
+        histogram = new long[decades*binsperdecade+2];
+        quantiles = new P2Quantile[DEFAULT_QUANTILES.length];
+        for(int i = 0;i < quantiles.length;i++){
+            quantiles[i] = new P2Quantile(DEFAULT_QUANTILES[i]);
+        }
+    }
+
+    /**
+    *       addEvents adds the times of a harvest.
+    */
+    @Override
+    public synchronized void addEvents(float[] times, int[] info, int n){
+        for(int i = 0;i < n;i++){
+            add(times[i]);
+        }
+    }
+
+    /**
+    *       add adds a single switch time.
+    *
+    * @param t - switch time
+    */
+    public synchronized void add(double t){
+        count++;
+        double delta = t-mean;
+        mean += delta/count;
+        m2 += delta*(t-mean);
+        if(t < min){min = t;}
+        if(t > max){max = t;}
+
+        histogram[getBin(t)]++;
+        for(int i = 0;i < quantiles.length;i++){
+            quantiles[i].add(t);
+        }
+    }
+
+    private int getBin(double t){
+        if(t <= 0){return 0;}
+        double b = Math.floor((Math.log10(t)-logMinTime)*binsPerDecade);
+        if(b < 0){return 0;}
+        if(b >= histogram.length-2){return histogram.length-1;}
+        return (int)b+1;
+    }
+
+    /**
+    *       getBinEdge gives the lower edge of a histogram bin. Bin 0 holds
+    *   times below getBinEdge(1) and the last bin times above the range.
+    *
+    * @param bin - histogram bin
+    */
+    public double getBinEdge(int bin){
+        if(bin == 0){return 0;}
+        return Math.pow(10, logMinTime+((double)(bin-1))/binsPerDecade);
+    }
+
+    public synchronized long getCount(){return count;}
+    public synchronized double getMean(){return mean;}
+    public synchronized double getMin(){return min;}
+    public synchronized double getMax(){return max;}
+
+    /**
+    *       getVariance gives the unbiased sample variance.
+    */
+    public synchronized double getVariance(){
+        return (count > 1) ? m2/(count-1) : 0;
+    }
+
+    /**
+    *       getStandardError gives the standard error of the mean.
+    */
+    public synchronized double getStandardError(){
+        return (count > 1) ? Math.sqrt(getVariance()/count) : 0;
+    }
+
+    /**
+    *       getQuantile gives the estimate of one of the tracked quantiles.
+    *
+    * @param i - index into getQuantileLevels
+    */
+    public synchronized double getQuantile(int i){
+        return quantiles[i].getValue();
+    }
+
+    public double[] getQuantileLevels(){
+        return DEFAULT_QUANTILES.clone();
+    }
+
+    public synchronized long[] getHistogram(){
+        return histogram.clone();
+    }
+
+    /**
+    *       report gives a one line summary of the statistics.
+    */
+    public synchronized String report(){
+        StringBuilder sb = new StringBuilder();
+        sb.append("Switch times n : ").append(count);
+        if(count == 0){return sb.toString();}
+        sb.append("  mean : ").append((float)mean).append(" +- ").append((float)getStandardError());
+        sb.append("  std : ").append((float)Math.sqrt(getVariance()));
+        sb.append("  min : ").append((float)min).append("  max : ").append((float)max);
+        for(int i = 0;i < quantiles.length;i++){
+            sb.append("  q").append(Math.round(DEFAULT_QUANTILES[i]*100)).append(" : ");
+            sb.append((float)quantiles[i].getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+    *       printHistogram prints the non-empty bins as lower edge, count and
+    *   density per unit time.
+    *
+    * @param out - stream to print to
+    */
+    public synchronized void printHistogram(PrintStream out){
+        for(int i = 0;i < histogram.length;i++){
+            if(histogram[i] == 0){continue;}
+            double lo = getBinEdge(i);
+            double width = (i == histogram.length-1) ? 0 : getBinEdge(i+1)-lo;
+            double density = (width > 0) ? histogram[i]/(width*count) : 0;
+            out.println(lo+"    "+histogram[i]+"    "+density);
+        }
+    }
+
+    /**
+    *       close does nothing, the statistics stay readable.
+    */
+    @Override
+    public void close(){
+    }
+}
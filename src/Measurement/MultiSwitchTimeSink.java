@@ -0,0 +1,48 @@
+package Measurement;
+/*
+ *   @(#)   MultiSwitchTimeSink
+ */
+
+import java.util.ArrayList;
+
+/**
+*      MultiSwitchTimeSink passes every harvest on to several sinks, for
+*   example a raw file and running statistics.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class MultiSwitchTimeSink implements SwitchTimeSink {
+    private ArrayList<SwitchTimeSink> sinks = new ArrayList<SwitchTimeSink>();
+
+    /**
+    *       add adds a sink, null is ignored.
+    *
+    * @param sink - sink to pass harvests to
+    * @return this sink
+    */
+    public MultiSwitchTimeSink add(SwitchTimeSink sink){
+        if(sink != null){sinks.add(sink);}
+        return this;
+    }
+
+    public int size(){
+        return sinks.size();
+    }
+
+    @Override
+    public void addEvents(float[] times, int[] info, int n){
+        for(int i = 0;i < sinks.size();i++){
+            sinks.get(i).addEvents(times, info, n);
+        }
+    }
+
+    @Override
+    public void close(){
+        for(int i = 0;i < sinks.size();i++){
+            sinks.get(i).close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package Measurement;
+/*
+ *   @(#)   OffsetSwitchTimeSink
+ */
+
+/**
+*      OffsetSwitchTimeSink passes harvests on to a shared sink with the system
+*   ids shifted by an offset, so simulations running parts of one ensemble,
+*   such as one per device, report ids of the whole ensemble. Close is not
+*   passed on, the owner of the shared sink closes it once every part is done.
+*   Harvests are passed on holding the lock of the shared sink, so parts on
+*   several threads can share a sink that is not thread safe itself.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class OffsetSwitchTimeSink implements SwitchTimeSink {
+    private SwitchTimeSink shared;
+    private int offset;
+    // reused, one harvest at a time per part
+    private int[] shifted = new int[0];
+
+    /**
+    *       OffsetSwitchTimeSink wraps a shared sink.
+    *
+    * @param sink - shared sink
+    * @param firstSystem - id in the whole ensemble of system 0 of this part
+    */
+    public OffsetSwitchTimeSink(SwitchTimeSink sink, int firstSystem){
+        shared = sink;
+        offset = firstSystem;
+    }
+
+    @Override
+    public void addEvents(float[] times, int[] info, int n){
+        synchronized(shared){
+            if(info == null || offset == 0){
+                shared.addEvents(times, info, n);
+                return;
+            }
+            if(shifted.length < 2*n){shifted = new int[2*n];}
+            for(int i = 0;i < n;i++){
+                shifted[i*2] = (info[i*2] < 0) ? info[i*2] : info[i*2]+offset;
+                shifted[i*2+1] = info[i*2+1];
+            }
+            shared.addEvents(times, shifted, n);
+        }
+    }
+
+    @Override
+    public void close(){
+    }
+}
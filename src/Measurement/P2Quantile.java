@@ -0,0 +1,113 @@
+package Measurement;
+/*
+ *   @(#)   P2Quantile
+ */
+
+import java.util.Arrays;
+
+/**
+*      P2Quantile estimates one quantile of a stream with the P-square
+*   algorithm of Jain and Chlamtac. It keeps five markers whatever the length
+*   of the stream.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class P2Quantile {
+    private double p;
+    private double[] q = new double[5];
+    private double[] n = new double[5];
+    private double[] np = new double[5];
+    private double[] dn = new double[5];
+    private long count = 0;
+
+    /**
+    *       P2Quantile creates an estimator.
+    *
+    * @param quantile - quantile to track, between 0 and 1
+    */
+    public P2Quantile(double quantile){
+        if(quantile <= 0 || quantile >= 1){
+            throw new IllegalArgumentException("Quantile must be in (0,1) : "+quantile);
+        }
+        p = quantile;
+    }
+
+    /**
+    *       add updates the markers with a new value.
+    *
+    * @param x - value
+    */
+    public void add(double x){
+        if(count < 5){
+            q[(int)count] = x;
+            count++;
+            if(count == 5){
+                Arrays.sort(q);
+                for(int i = 0;i < 5;i++){n[i] = i;}
+                np[0] = 0; np[1] = 2*p; np[2] = 4*p; np[3] = 2+2*p; np[4] = 4;
+                dn[0] = 0; dn[1] = p/2; dn[2] = p; dn[3] = (1+p)/2; dn[4] = 1;
+            }
+            return;
+        }
+
+        // cell the value falls in, extending the extremes
+        int k;
+        if(x < q[0]){
+            q[0] = x;
+            k = 0;
+        }else if(x < q[1]){
+            k = 0;
+        }else if(x < q[2]){
+            k = 1;
+        }else if(x < q[3]){
+            k = 2;
+        }else if(x <= q[4]){
+            k = 3;
+        }else{
+            q[4] = x;
+            k = 3;
+        }
+        for(int i = k+1;i < 5;i++){n[i]++;}
+        for(int i = 0;i < 5;i++){np[i] += dn[i];}
+
+        // move the middle markers toward their desired positions
+        for(int i = 1;i < 4;i++){
+            double d = np[i]-n[i];
+            if((d >= 1 && n[i+1]-n[i] > 1) || (d <= -1 && n[i-1]-n[i] < -1)){
+                int s = (d > 0) ? 1 : -1;
+                double qp = parabolic(i, s);
+                if(q[i-1] < qp && qp < q[i+1]){
+                    q[i] = qp;
+                }else{
+                    q[i] = q[i]+s*(q[i+s]-q[i])/(n[i+s]-n[i]);
+                }
+                n[i] += s;
+            }
+        }
+        count++;
+    }
+
+    private double parabolic(int i, int s){
+        return q[i]+s/(n[i+1]-n[i-1])*((n[i]-n[i-1]+s)*(q[i+1]-q[i])/(n[i+1]-n[i])
+                +(n[i+1]-n[i]-s)*(q[i]-q[i-1])/(n[i]-n[i-1]));
+    }
+
+    /**
+    *       getValue gives the current estimate, NaN before any value.
+    */
+    public double getValue(){
+        if(count == 0){return Double.NaN;}
+        if(count < 5){
+            double[] sorted = Arrays.copyOf(q, (int)count);
+            Arrays.sort(sorted);
+            return sorted[(int)Math.min(count-1, Math.round(p*(count-1)))];
+        }
+        return q[2];
+    }
+
+    public double getQuantile(){return p;}
+    public long getCount(){return count;}
+}
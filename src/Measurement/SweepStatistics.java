@@ -0,0 +1,64 @@
+package Measurement;
+/*
+ *   @(#)   SweepStatistics
+ */
+
+import java.io.PrintStream;
+
+/**
+*      SweepStatistics keeps FirstPassageStatistics for every parameter set of
+*   a sweep, routing each event by the set of the system that switched.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class SweepStatistics implements SwitchTimeSink {
+    private int[] systemSet;
+    private FirstPassageStatistics[] setStatistics;
+
+    /**
+    *       SweepStatistics creates one accumulator per set.
+    *
+    * @param systemIndex - parameter set of every system
+    * @param nSets - number of parameter sets
+    */
+    public SweepStatistics(int[] systemIndex, int nSets){
+        systemSet = systemIndex;
+        setStatistics = new FirstPassageStatistics[nSets];
+        for(int i = 0;i < nSets;i++){
+            setStatistics[i] = new FirstPassageStatistics();
+        }
+    }
+
+    /**
+    *       addEvents needs the system ids, events without them are dropped.
+    */
+    @Override
+    public void addEvents(float[] times, int[] info, int n){
+        if(info == null){return;}
+        for(int i = 0;i < n;i++){
+            setStatistics[systemSet[info[i*2]]].add(times[i]);
+        }
+    }
+
+    public FirstPassageStatistics getStatistics(int set){
+        return setStatistics[set];
+    }
+
+    /**
+    *       printReport prints the report of every set.
+    *
+    * @param out - stream to print to
+    */
+    public void printReport(PrintStream out){
+        for(int i = 0;i < setStatistics.length;i++){
+            out.println("Set "+i+"  "+setStatistics[i].report());
+        }
+    }
+
+    @Override
+    public void close(){
+    }
+}
@@ -0,0 +1,31 @@
+package Measurement;
+/*
+ *   @(#)   SwitchTimeSink
+ */
+
+/**
+*      SwitchTimeSink receives batches of harvested switch events. The arrays
+*   are reused by the caller so a sink has to copy what it keeps before
+*   returning.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public interface SwitchTimeSink {
+
+    /**
+    *       addEvents takes the first n events of a harvest.
+    *
+    * @param times - switch times
+    * @param info - (system id, reaction count) pairs, null if not known
+    * @param n - number of events
+    */
+    public void addEvents(float[] times, int[] info, int n);
+
+    /**
+    *       close flushes and releases anything held by the sink.
+    */
+    public void close();
+}
@@ -0,0 +1,103 @@
+package Models;
+/*
+ *   @(#)   HillTable
+ */
+
+import java.util.Arrays;
+
+/**
+*      HillTable holds the Hill factor of one modifier, h/(1+h) for activation
+*   or 1/(1+h) for repression with h = (m/K)^n, for every copy number m from 0
+*   up to the table size. Copy numbers are small bounded integers so a lookup
+*   replaces the pow of every propensity evaluation. A count past the end
+*   doubles the table until it fits, counts past MAX_SIZE are computed
+*   directly.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class HillTable {
+    public static final int MIN_SIZE = 64;
+    public static final int MAX_SIZE = 1 << 20;
+    private double hillK;
+    private double hillN;
+    private boolean activation;
+    // replaced whole when grown so readers never see a partial table
+    private volatile double[] table;
+
+    /**
+    *       HillTable creates a table of MIN_SIZE entries.
+    *
+    * @param K - Hill constant
+    * @param n - Hill coefficient
+    * @param activates - true for activation, false for repression
+    */
+    public HillTable(double K, double n, boolean activates){
+        hillK = K;
+        hillN = n;
+        activation = activates;
+        double[] t = new double[MIN_SIZE];
+        fill(t, 0);
+        table = t;
+    }
+
+    /**
+    *       factor gives the Hill factor at a copy number.
+    *
+    * @param m - copy number of the modifier
+    */
+    public double factor(int m){
+        double[] t = table;
+        if(m < t.length){return t[m];}
+        if(m >= MAX_SIZE){return value(m);}
+        return grow(m)[m];
+    }
+
+    /**
+    *       value computes the Hill factor without the table.
+    *
+    * @param m - copy number of the modifier
+    */
+    public double value(double m){
+        double h = Math.pow(m/hillK, hillN);
+        return activation ? h/(1+h) : 1/(1+h);
+    }
+
+    public int size(){
+        return table.length;
+    }
+
+    /**
+    *       fill writes scale times the Hill factor for copy numbers 0 to
+    *   size-1 into a float row, as the device tables use.
+    *
+    * @param dst - destination
+    * @param offset - first entry of the row in dst
+    * @param size - number of copy numbers
+    * @param scale - factor of every entry, the maximum rate
+    */
+    public void fill(float[] dst, int offset, int size, double scale){
+        for(int m = 0;m < size;m++){
+            dst[offset+m] = (float) (scale*value(m));
+        }
+    }
+
+    private synchronized double[] grow(int m){
+        double[] t = table;
+        if(m < t.length){return t;}
+        int size = t.length;
+        while(size <= m){size *= 2;}
+        double[] bigger = Arrays.copyOf(t, size);
+        fill(bigger, t.length);
+        table = bigger;
+        return bigger;
+    }
+
+    private void fill(double[] t, int from){
+        for(int m = from;m < t.length;m++){
+            t[m] = value(m);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package Models;
+/*
+ *   @(#)   NetworkKernelGenerator
+ */
+
+/**
+*      NetworkKernelGenerator writes an OpenCL kernel specialised to one
+*   ReactionNetwork. Rates and Hill constants are folded into literals, the
+*   propensities and reaction selection are unrolled with one branch per
+*   reaction, species are held in named registers and integer Hill exponents
+*   up to MAX_UNROLLED_HILL become multiplies instead of pow. Constants that
+*   are not finite as floats are rejected and names are cleaned before going
+*   into comments, so the source always compiles.
+*
+*   <br>
+*   The generated kernel takes
+*   <br>
+*   (int *state, float *time, uint *rngState, int *nReact, int *eventCount,
+*   int *eventInfo, float *eventTime, int nReactions, float tHorizon,
+*   int eventCapacity, int nElements)
+*   <br>
+*   with the same meaning as in gillespie_network.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class NetworkKernelGenerator {
+    public static final int MAX_UNROLLED_HILL = 8;
+    private ReactionNetwork network;
+    private String kernelName;
+    private int[][] stoichiometry;
+
+    /**
+    *       NetworkKernelGenerator creates a generator for a network.
+    *
+    * @param net - network to specialise the kernel to
+    * @param kernelname - name of the generated kernel
+    */
+    public NetworkKernelGenerator(ReactionNetwork net, String kernelname){
+        network = net;
+        kernelName = kernelname;
+    }
+
+    public String getKernelName(){
+        return kernelName;
+    }
+
+    /**
+    *       generate gives the OpenCL source of the kernel.
+    */
+    public String generate(){
+        int nSpecies = network.getNumSpecies();
+        int nRxn = network.getNumReactions();
+        int[] init = network.getInitialState();
+        stoichiometry = network.getStoichiometry();
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("/*\n");
+        sb.append(" *   ").append(kernelName).append(" is generated by NetworkKernelGenerator for a network\n");
+        sb.append(" *   of ").append(nSpecies).append(" species and ").append(nRxn).append(" reactions.\n");
+        for(int r = 0;r < nRxn;r++){
+            sb.append(" *   a").append(r).append(" : ").append(comment(network.getReaction(r).getName())).append("\n");
+        }
+        sb.append(" */\n\n");
+
+        sb.append("__kernel void ").append(kernelName).append("(__global int *state,__global float *time,\n");
+        sb.append("            __global uint *rngState,__global int *nReact,\n");
+        sb.append("            __global int *eventCount,__global int *eventInfo,__global float *eventTime,\n");
+        sb.append("            int nReactions, float tHorizon, int eventCapacity, int nElements) {\n\n");
+
+        sb.append("    int currSys = get_global_id(0);\n");
+        sb.append("    if (currSys >= nElements)  {\n        return;\n    }\n\n");
+
+        sb.append("    // load state into registers\n");
+        for(int s = 0;s < nSpecies;s++){
+            sb.append("    int s").append(s).append(" = state[currSys*").append(nSpecies).append("+").append(s)
+                    .append("];  // ").append(comment(network.getSpeciesName(s))).append("\n");
+        }
+        sb.append("    float currTime = time[currSys];\n");
+        sb.append("    float elapsed = 0.0f;\n");
+        sb.append("    int reactCurr = nReact[currSys];\n");
+        sb.append("    uint x = rngState[currSys*4+0];\n");
+        sb.append("    uint y = rngState[currSys*4+1];\n");
+        sb.append("    uint z = rngState[currSys*4+2];\n");
+        sb.append("    uint w = rngState[currSys*4+3];\n");
+        sb.append("    uint t;\n\n");
+
+        sb.append("    for(int k = 0; k < nReactions; k++){\n");
+        sb.append("        // propensities\n");
+        for(int r = 0;r < nRxn;r++){
+            String expr;
+            try {
+                expr = propensityExpr(network.getReaction(r));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Reaction "+network.getReaction(r).getName()+": "+e.getMessage());
+            }
+            sb.append("        float a").append(r).append(" = ").append(expr).append(";\n");
+        }
+        sb.append("        float rCurr = ");
+        for(int r = 0;r < nRxn;r++){
+            sb.append((r == 0) ? "" : "+").append("a").append(r);
+        }
+        if(nRxn == 0){sb.append("0.0f");}
+        sb.append(";\n");
+        sb.append("        if(rCurr <= 0.0f){\n            break;\n        }\n\n");
+
+        sb.append("        // (0,1] uniform for the time, [0,1) for the reaction, exact from 24 bits\n");
+        sb.append("        t = x ^ (x << 11); x = y; y = z; z = w;\n");
+        sb.append("        w = w ^ (w >> 19) ^ t ^ (t >> 8);\n");
+        sb.append("        float ran1 = ((float)(w >> 8) + 1.0f) * (1.0f/16777216.0f);\n");
+        sb.append("        t = x ^ (x << 11); x = y; y = z; z = w;\n");
+        sb.append("        w = w ^ (w >> 19) ^ t ^ (t >> 8);\n");
+        sb.append("        float ran2 = (float)(w >> 8) * (1.0f/16777216.0f);\n\n");
+
+        sb.append("        float dt = -1.0f*log(ran1)/rCurr;\n");
+        sb.append("        currTime = currTime+dt;\n");
+        sb.append("        elapsed = elapsed+dt;\n\n");
+
+        sb.append("        // select and fire, rounding past the sum fires the last reaction that\n");
+        sb.append("        // can, so no count goes below 0\n");
+        sb.append("        float u = ran2*rCurr;\n");
+        sb.append("        float cumul = 0.0f;\n");
+        for(int r = 0;r < nRxn;r++){
+            sb.append("        ");
+            if(r > 0){sb.append("else ");}
+            sb.append("if(u < (cumul += a").append(r).append(")){");
+            sb.append(updateStatements(r)).append(" }\n");
+        }
+        for(int r = nRxn-1;r >= 0;r--){
+            sb.append("        else if(a").append(r).append(" > 0.0f){");
+            sb.append(updateStatements(r)).append(" }\n");
+        }
+        sb.append("        reactCurr = reactCurr+1;\n\n");
+
+        int sw = network.getSwitchSpecies();
+        if(sw >= 0){
+            sb.append("        // record switch and reset system\n");
+            sb.append("        if(s").append(sw).append(" > ").append(network.getSwitchThreshold()).append("){\n");
+            sb.append("            int slot = atomic_inc(eventCount);\n");
+            sb.append("            if(slot < eventCapacity){\n");
+            sb.append("                eventInfo[slot*2] = currSys;\n");
+            sb.append("                eventInfo[slot*2+1] = reactCurr;\n");
+            sb.append("                eventTime[slot] = currTime;\n");
+            sb.append("            }\n");
+            sb.append("            reactCurr = 0;\n");
+            for(int s = 0;s < nSpecies;s++){
+                sb.append("            s").append(s).append(" = ").append(init[s]).append(";\n");
+            }
+            sb.append("            currTime = 0.0f;\n");
+            sb.append("        }\n\n");
+        }
+
+        sb.append("        if(tHorizon > 0.0f && elapsed >= tHorizon){\n            break;\n        }\n");
+        sb.append("    }\n\n");
+
+        sb.append("    // write back state\n");
+        for(int s = 0;s < nSpecies;s++){
+            sb.append("    state[currSys*").append(nSpecies).append("+").append(s).append("] = s").append(s).append(";\n");
+        }
+        sb.append("    time[currSys] = currTime;\n");
+        sb.append("    nReact[currSys] = reactCurr;\n");
+        sb.append("    rngState[currSys*4+0] = x;\n");
+        sb.append("    rngState[currSys*4+1] = y;\n");
+        sb.append("    rngState[currSys*4+2] = z;\n");
+        sb.append("    rngState[currSys*4+3] = w;\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+    *       propensityExpr gives the propensity of a reaction as an expression
+    *   of the species registers with every constant folded.
+    *
+    * @param rx - reaction
+    */
+    private String propensityExpr(Reaction rx){
+        // rate over the factorials of the reactant coefficients
+        double k = rx.getRate();
+        StringBuilder terms = new StringBuilder();
+        for(int i = 0;i < rx.getNumReactants();i++){
+            int s = rx.getReactantSpecies(i);
+            int c = rx.getReactantCoeff(i);
+            for(int j = 0;j < c;j++){
+                k /= (j+1);
+                terms.append("*(float)(");
+                terms.append((j == 0) ? "s"+s : "max(s"+s+"-"+j+",0)");
+                terms.append(")");
+            }
+        }
+        String massAction = literal(k)+terms.toString();
+        if(rx.getRateLaw() == RateLaw.MASS_ACTION){return massAction;}
+
+        String h = hillExpr(rx);
+        if(rx.getRateLaw() == RateLaw.HILL_ACTIVATION){
+            return massAction+"*(1.0f-1.0f/(1.0f+"+h+"))";
+        }
+        return massAction+"/(1.0f+"+h+")";
+    }
+
+    /**
+    *       hillExpr gives (m/K)^n, as repeated multiplies for small integer n.
+    *
+    * @param rx - reaction with a Hill rate law
+    */
+    private String hillExpr(Reaction rx){
+        String q = "((float)s"+rx.getModifier()+"*"+literal(1.0/rx.getHillK())+")";
+        double n = rx.getHillN();
+        if(n == Math.rint(n) && n >= 1 && n <= MAX_UNROLLED_HILL){
+            StringBuilder sb = new StringBuilder("(");
+            for(int i = 0;i < (int)n;i++){
+                sb.append((i == 0) ? "" : "*").append(q);
+            }
+            return sb.append(")").toString();
+        }
+        return "pow("+q+","+literal(n)+")";
+    }
+
+    /**
+    *       updateStatements gives the species updates of a reaction.
+    *
+    * @param r - reaction index
+    */
+    private String updateStatements(int r){
+        int[][] nu = stoichiometry;
+        StringBuilder sb = new StringBuilder();
+        for(int s = 0;s < nu[r].length;s++){
+            if(nu[r][s] == 0){continue;}
+            sb.append(" s").append(s).append((nu[r][s] > 0) ? " += " : " -= ").append(Math.abs(nu[r][s])).append(";");
+        }
+        return sb.toString();
+    }
+
+    /**
+    *       literal gives a float literal for OpenCL C. Values that are not
+    *   finite as a float have no literal and are rejected.
+    */
+    static String literal(double v){
+        float f = (float) v;
+        if(Float.isNaN(f) || Float.isInfinite(f)){
+            throw new IllegalArgumentException("constant "+v+" is not a finite float");
+        }
+        return Float.toString(f)+"f";
+    }
+
+    /**
+    *       comment makes a name safe inside a generated comment, the comment
+    *   delimiters and line breaks are broken up.
+    */
+    static String comment(String name){
+        return name.replace("*/", "* /").replace("/*", "/ *").replace("//", "/ /")
+                .replace('\n', ' ').replace('\r', ' ');
+    }
+}
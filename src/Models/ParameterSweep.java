@@ -0,0 +1,137 @@
+package Models;
+/*
+ *   @(#)   ParameterSweep
+ */
+
+import java.util.ArrayList;
+
+/**
+*      ParameterSweep is a grid of parameter sets built from a base parameter
+*   row. Every axis sets one or more columns from a list of values and the grid
+*   is every combination of the axes. The sets are stored once as a compact
+*   table and systems pick a row through an index.
+*
+*   <br>
+*   Example, beta in the toggle switch scales alpha by 10 and tau and kappa by 1
+*   <br>
+*   sweep.addAxis(new int[]{0,1,2,3,6,7}, new float[]{10,10,1,1,1,1}, betas)
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class ParameterSweep {
+    private float[] base;
+    private ArrayList<int[]> axisColumns = new ArrayList<int[]>();
+    private ArrayList<float[]> axisFactors = new ArrayList<float[]>();
+    private ArrayList<float[]> axisValues = new ArrayList<float[]>();
+
+    /**
+    *       ParameterSweep creates a sweep with a single set, the base row.
+    *
+    * @param baseParams - parameter row the axes change
+    */
+    public ParameterSweep(float[] baseParams){
+        base = baseParams.clone();
+    }
+
+    /**
+    *       addAxis adds an axis setting a single column.
+    *
+    * @param column - parameter column
+    * @param values - values the column takes
+    * @return this sweep
+    */
+    public ParameterSweep addAxis(int column, float[] values){
+        return addAxis(new int[]{column}, new float[]{1.0f}, values);
+    }
+
+    /**
+    *       addAxis adds an axis setting several columns together, each to the
+    *   axis value times its factor.
+    *
+    * @param columns - parameter columns
+    * @param factors - factor of every column
+    * @param values - values of the axis
+    * @return this sweep
+    */
+    public ParameterSweep addAxis(int[] columns, float[] factors, float[] values){
+        if(columns.length != factors.length){
+            throw new IllegalArgumentException("Every column needs a factor.");
+        }
+        for(int i = 0;i < columns.length;i++){
+            if(columns[i] < 0 || columns[i] >= base.length){
+                throw new IllegalArgumentException("No parameter column "+columns[i]);
+            }
+        }
+        axisColumns.add(columns.clone());
+        axisFactors.add(factors.clone());
+        axisValues.add(values.clone());
+        return this;
+    }
+
+    /**
+    *       getNumSets gives the number of parameter sets in the grid.
+    */
+    public int getNumSets(){
+        int n = 1;
+        for(int a = 0;a < axisValues.size();a++){
+            n *= axisValues.get(a).length;
+        }
+        return n;
+    }
+
+    public int getNumParams(){
+        return base.length;
+    }
+
+    /**
+    *       getSet gives one parameter set, the first axis changing slowest.
+    *
+    * @param set - set index
+    */
+    public float[] getSet(int set){
+        float[] row = base.clone();
+        int rest = set;
+        for(int a = axisValues.size()-1;a >= 0;a--){
+            float[] values = axisValues.get(a);
+            float v = values[rest % values.length];
+            rest /= values.length;
+            int[] columns = axisColumns.get(a);
+            float[] factors = axisFactors.get(a);
+            for(int c = 0;c < columns.length;c++){
+                row[columns[c]] = v*factors[c];
+            }
+        }
+        return row;
+    }
+
+    /**
+    *       getTable gives every set one after the other.
+    */
+    public float[] getTable(){
+        int nSets = getNumSets();
+        float[] table = new float[nSets*base.length];
+        for(int s = 0;s < nSets;s++){
+            System.arraycopy(getSet(s), 0, table, s*base.length, base.length);
+        }
+        return table;
+    }
+
+    /**
+    *       getSystemIndex gives the set of every system. Systems are split into
+    *   contiguous blocks, one per set, so neighbouring work-items share
+    *   parameters.
+    *
+    * @param numSystems - number of systems
+    */
+    public int[] getSystemIndex(int numSystems){
+        int nSets = getNumSets();
+        int[] index = new int[numSystems];
+        for(int i = 0;i < numSystems;i++){
+            index[i] = (int)(((long)i)*nSets/numSystems);
+        }
+        return index;
+    }
+}
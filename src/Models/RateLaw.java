@@ -0,0 +1,35 @@
+package Models;
+/*
+ *   @(#)   RateLaw
+ */
+
+/**
+*      RateLaw is the kind of propensity a reaction has. The code is what the
+*   device kernels see in the reaction table.
+*
+*   <br>
+*   MASS_ACTION     : k times the number of reactant combinations
+*   HILL_ACTIVATION : the mass action term times (m/K)^n/(1+(m/K)^n)
+*   HILL_REPRESSION : the mass action term times 1/(1+(m/K)^n)
+*   where m is the count of the modifier species.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public enum RateLaw {
+    MASS_ACTION(0),
+    HILL_ACTIVATION(1),
+    HILL_REPRESSION(2);
+
+    private int code;
+
+    private RateLaw(int c){
+        code = c;
+    }
+
+    public int getCode(){
+        return code;
+    }
+}
@@ -0,0 +1,140 @@
+package Models;
+/*
+ *   @(#)   Reaction
+ */
+
+import java.util.ArrayList;
+
+/**
+*      Reaction is one reaction channel of a ReactionNetwork: its reactants,
+*   products and rate law. Species are given by their index in the network.
+*
+*   <br>
+*   Example, production of species 0 repressed by species 1
+*   <br>
+*   new Reaction("birth p1", RateLaw.HILL_REPRESSION, alpha).product(0, 1).modifier(1, kappa, n)
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class Reaction {
+    private String name;
+    private RateLaw rateLaw;
+    private double rate;
+    private int modifier = -1;
+    private double hillK = 1.0;
+    private double hillN = 1.0;
+    private HillTable hillTable;
+    private ArrayList<int[]> reactants = new ArrayList<int[]>();
+    private ArrayList<int[]> products = new ArrayList<int[]>();
+
+    /**
+    *       Reaction creates a reaction without reactants or products.
+    *
+    * @param rname - name for output
+    * @param law - rate law
+    * @param k - rate constant, the maximum rate for Hill laws
+    */
+    public Reaction(String rname, RateLaw law, double k){
+        name = rname;
+        rateLaw = law;
+        rate = k;
+    }
+
+    /**
+    *       reactant adds a reactant consumed by the reaction.
+    *
+    * @param species - species index
+    * @param coeff - molecules consumed
+    * @return this reaction
+    */
+    public Reaction reactant(int species, int coeff){
+        reactants.add(new int[]{species, coeff});
+        return this;
+    }
+
+    /**
+    *       product adds a product made by the reaction.
+    *
+    * @param species - species index
+    * @param coeff - molecules made
+    * @return this reaction
+    */
+    public Reaction product(int species, int coeff){
+        products.add(new int[]{species, coeff});
+        return this;
+    }
+
+    /**
+    *       modifier sets the species regulating a Hill rate law.
+    *
+    * @param species - species index
+    * @param K - half saturation count
+    * @param n - Hill coefficient
+    * @return this reaction
+    */
+    public Reaction modifier(int species, double K, double n){
+        modifier = species;
+        hillK = K;
+        hillN = n;
+        hillTable = new HillTable(K, n, rateLaw == RateLaw.HILL_ACTIVATION);
+        return this;
+    }
+
+    /**
+    *       propensity gives the propensity of the reaction in a state.
+    *
+    * @param state - species counts of all systems
+    * @param offset - index of the first species of the system
+    */
+    public double propensity(int[] state, int offset){
+        double a = rate;
+        for(int i = 0;i < reactants.size();i++){
+            int[] r = reactants.get(i);
+            a *= combinations(state[offset+r[0]], r[1]);
+        }
+        if(rateLaw == RateLaw.MASS_ACTION){return a;}
+        // Hill factor looked up by the modifier count
+        return a*hillTable.factor(state[offset+modifier]);
+    }
+
+    /**
+    *       dependsOn checks if the propensity changes with the count of a
+    *   species, as a reactant or as the Hill modifier.
+    *
+    * @param species - species index
+    */
+    public boolean dependsOn(int species){
+        for(int i = 0;i < reactants.size();i++){
+            if(reactants.get(i)[0] == species){return true;}
+        }
+        return rateLaw != RateLaw.MASS_ACTION && modifier == species;
+    }
+
+    /**
+    *       combinations gives the number of ways to pick c molecules out of x.
+    */
+    static double combinations(int x, int c){
+        double comb = 1.0;
+        for(int j = 0;j < c;j++){
+            comb *= ((double)(x-j))/(j+1);
+        }
+        return (comb > 0) ? comb : 0;
+    }
+
+    public String getName(){return name;}
+    public RateLaw getRateLaw(){return rateLaw;}
+    public double getRate(){return rate;}
+    public int getModifier(){return modifier;}
+    public double getHillK(){return hillK;}
+    public double getHillN(){return hillN;}
+    public HillTable getHillTable(){return hillTable;}
+    public int getNumReactants(){return reactants.size();}
+    public int getReactantSpecies(int i){return reactants.get(i)[0];}
+    public int getReactantCoeff(int i){return reactants.get(i)[1];}
+    public int getNumProducts(){return products.size();}
+    public int getProductSpecies(int i){return products.get(i)[0];}
+    public int getProductCoeff(int i){return products.get(i)[1];}
+}
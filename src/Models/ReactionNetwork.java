@@ -0,0 +1,305 @@
+package Models;
+/*
+ *   @(#)   ReactionNetwork
+ */
+
+import java.util.ArrayList;
+
+/**
+*      ReactionNetwork describes a well mixed chemical system: named species
+*   with initial counts, reaction channels with their rate laws and an optional
+*   first passage condition. The engines read the network through the
+*   propensity and update methods on the host and through flat reaction tables
+*   on the device.
+*
+*   <br>
+*   Device tables, one row per reaction
+*   <br>
+*   info  : rate law code, modifier, number of reactants, (species, coeff) per reactant
+*   <br>
+*   param : rate, K, n
+*   <br>
+*   stoichiometry : net change of every species
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class ReactionNetwork {
+    public static final int MAX_REACTANTS = 2;
+    public static final int MAX_DEVICE_SPECIES = 16;
+    public static final int MAX_DEVICE_REACTIONS = 32;
+    public static final int INFO_STRIDE = 3+2*MAX_REACTANTS;
+    public static final int PARAM_STRIDE = 3;
+    private ArrayList<String> speciesNames = new ArrayList<String>();
+    private ArrayList<Integer> initialCounts = new ArrayList<Integer>();
+    private ArrayList<Reaction> reactions = new ArrayList<Reaction>();
+    private int switchSpecies = -1;
+    private int switchThreshold = 0;
+    // nonzero net changes per reaction, rebuilt when the network changes
+    private volatile int[][] changeSpecies;
+    private int[][] changeAmount;
+
+    /**
+    *       addSpecies adds a species.
+    *
+    * @param name - species name
+    * @param initial - initial count
+    * @return species index
+    */
+    public int addSpecies(String name, int initial){
+        if(speciesNames.contains(name)){
+            throw new IllegalArgumentException("Species "+name+" already exists.");
+        }
+        speciesNames.add(name);
+        initialCounts.add(initial);
+        changeSpecies = null;
+        return speciesNames.size()-1;
+    }
+
+    /**
+    *       addReaction adds a reaction channel.
+    *
+    * @param r - reaction using species already added
+    * @return reaction index
+    */
+    public int addReaction(Reaction r){
+        if(r.getNumReactants() > MAX_REACTANTS){
+            throw new IllegalArgumentException("Reaction "+r.getName()+" has more than "
+                    +MAX_REACTANTS+" reactants.");
+        }
+        for(int i = 0;i < r.getNumReactants();i++){checkSpecies(r.getReactantSpecies(i), r);}
+        for(int i = 0;i < r.getNumProducts();i++){checkSpecies(r.getProductSpecies(i), r);}
+        if(r.getRateLaw() != RateLaw.MASS_ACTION){checkSpecies(r.getModifier(), r);}
+
+        reactions.add(r);
+        changeSpecies = null;
+        return reactions.size()-1;
+    }
+
+    private void checkSpecies(int s, Reaction r){
+        if(s < 0 || s >= speciesNames.size()){
+            throw new IllegalArgumentException("Reaction "+r.getName()+" uses unknown species "+s);
+        }
+    }
+
+    /**
+    *       setFirstPassage sets the switch condition. A system whose count of
+    *   the species goes above the threshold records a switch and restarts from
+    *   the initial state.
+    *
+    * @param species - species index
+    * @param threshold - count to exceed
+    */
+    public void setFirstPassage(int species, int threshold){
+        switchSpecies = species;
+        switchThreshold = threshold;
+    }
+
+    public int getNumSpecies(){return speciesNames.size();}
+    public int getNumReactions(){return reactions.size();}
+    public String getSpeciesName(int s){return speciesNames.get(s);}
+    public int getSpeciesIndex(String name){return speciesNames.indexOf(name);}
+    public Reaction getReaction(int r){return reactions.get(r);}
+    public int getSwitchSpecies(){return switchSpecies;}
+    public int getSwitchThreshold(){return switchThreshold;}
+
+    /**
+    *       getInitialState gives the initial count of every species.
+    */
+    public int[] getInitialState(){
+        int[] init = new int[speciesNames.size()];
+        for(int s = 0;s < init.length;s++){init[s] = initialCounts.get(s);}
+        return init;
+    }
+
+    /**
+    *       getStoichiometry gives the net change matrix, one row per reaction.
+    */
+    public int[][] getStoichiometry(){
+        int[][] nu = new int[reactions.size()][speciesNames.size()];
+        for(int r = 0;r < reactions.size();r++){
+            Reaction rx = reactions.get(r);
+            for(int i = 0;i < rx.getNumReactants();i++){
+                nu[r][rx.getReactantSpecies(i)] -= rx.getReactantCoeff(i);
+            }
+            for(int i = 0;i < rx.getNumProducts();i++){
+                nu[r][rx.getProductSpecies(i)] += rx.getProductCoeff(i);
+            }
+        }
+        return nu;
+    }
+
+    /**
+    *       propensities fills the propensity of every reaction for one system.
+    *
+    * @param state - species counts of all systems
+    * @param offset - index of the first species of the system
+    * @param a - propensities, one per reaction
+    * @return total propensity
+    */
+    public double propensities(int[] state, int offset, double[] a){
+        double total = 0;
+        for(int r = 0;r < a.length;r++){
+            a[r] = reactions.get(r).propensity(state, offset);
+            total += a[r];
+        }
+        return total;
+    }
+
+    /**
+    *       fire applies the net change of a reaction to one system.
+    *
+    * @param r - reaction index
+    * @param state - species counts of all systems
+    * @param offset - index of the first species of the system
+    */
+    public void fire(int r, int[] state, int offset){
+        if(changeSpecies == null){buildChanges();}
+        int[] species = changeSpecies[r];
+        int[] amount = changeAmount[r];
+        for(int i = 0;i < species.length;i++){
+            state[offset+species[i]] += amount[i];
+        }
+    }
+
+    /**
+    *       getChangedSpecies gives the species whose count a reaction changes.
+    *
+    * @param r - reaction index
+    */
+    public int[] getChangedSpecies(int r){
+        if(changeSpecies == null){buildChanges();}
+        return changeSpecies[r];
+    }
+
+    /**
+    *       getDependencyGraph gives, for every reaction, the reactions whose
+    *   propensity changes when it fires. A reaction is its own dependent
+    *   whenever it changes any species, so its firing time is always redrawn.
+    */
+    public int[][] getDependencyGraph(){
+        int nRxn = reactions.size();
+        int[][] graph = new int[nRxn][];
+        for(int r = 0;r < nRxn;r++){
+            int[] changed = getChangedSpecies(r);
+            ArrayList<Integer> dependents = new ArrayList<Integer>();
+            for(int j = 0;j < nRxn;j++){
+                boolean depends = (j == r);
+                for(int i = 0;i < changed.length && !depends;i++){
+                    depends = reactions.get(j).dependsOn(changed[i]);
+                }
+                if(depends){dependents.add(j);}
+            }
+            graph[r] = new int[dependents.size()];
+            for(int i = 0;i < graph[r].length;i++){graph[r][i] = dependents.get(i);}
+        }
+        return graph;
+    }
+
+    private void buildChanges(){
+        int[][] nu = getStoichiometry();
+        int[][] species = new int[nu.length][];
+        int[][] amount = new int[nu.length][];
+        for(int r = 0;r < nu.length;r++){
+            int n = 0;
+            for(int s = 0;s < nu[r].length;s++){if(nu[r][s] != 0){n++;}}
+            species[r] = new int[n];
+            amount[r] = new int[n];
+            n = 0;
+            for(int s = 0;s < nu[r].length;s++){
+                if(nu[r][s] != 0){
+                    species[r][n] = s;
+                    amount[r][n] = nu[r][s];
+                    n++;
+                }
+            }
+        }
+        changeAmount = amount;
+        changeSpecies = species;
+    }
+
+    /**
+    *       hasSwitched checks the first passage condition for one system.
+    *
+    * @param state - species counts of all systems
+    * @param offset - index of the first species of the system
+    */
+    public boolean hasSwitched(int[] state, int offset){
+        return switchSpecies >= 0 && state[offset+switchSpecies] > switchThreshold;
+    }
+
+    /**
+    *       reset puts one system back to the initial counts.
+    *
+    * @param state - species counts of all systems
+    * @param offset - index of the first species of the system
+    */
+    public void reset(int[] state, int offset){
+        for(int s = 0;s < initialCounts.size();s++){
+            state[offset+s] = initialCounts.get(s);
+        }
+    }
+
+    /**
+    *       checkDeviceLimits throws if the network does not fit the device
+    *   kernels.
+    */
+    public void checkDeviceLimits(){
+        if(speciesNames.size() > MAX_DEVICE_SPECIES){
+            throw new IllegalArgumentException("Device kernels take at most "
+                    +MAX_DEVICE_SPECIES+" species, network has "+speciesNames.size());
+        }
+        if(reactions.size() > MAX_DEVICE_REACTIONS){
+            throw new IllegalArgumentException("Device kernels take at most "
+                    +MAX_DEVICE_REACTIONS+" reactions, network has "+reactions.size());
+        }
+    }
+
+    /**
+    *       getInfoTable gives the integer reaction table for the device.
+    */
+    public int[] getInfoTable(){
+        int[] info = new int[reactions.size()*INFO_STRIDE];
+        for(int r = 0;r < reactions.size();r++){
+            Reaction rx = reactions.get(r);
+            info[r*INFO_STRIDE] = rx.getRateLaw().getCode();
+            info[r*INFO_STRIDE+1] = rx.getModifier();
+            info[r*INFO_STRIDE+2] = rx.getNumReactants();
+            for(int i = 0;i < rx.getNumReactants();i++){
+                info[r*INFO_STRIDE+3+2*i] = rx.getReactantSpecies(i);
+                info[r*INFO_STRIDE+4+2*i] = rx.getReactantCoeff(i);
+            }
+        }
+        return info;
+    }
+
+    /**
+    *       getParamTable gives the float reaction table for the device.
+    */
+    public float[] getParamTable(){
+        float[] param = new float[reactions.size()*PARAM_STRIDE];
+        for(int r = 0;r < reactions.size();r++){
+            Reaction rx = reactions.get(r);
+            param[r*PARAM_STRIDE] = (float) rx.getRate();
+            param[r*PARAM_STRIDE+1] = (float) rx.getHillK();
+            param[r*PARAM_STRIDE+2] = (float) rx.getHillN();
+        }
+        return param;
+    }
+
+    /**
+    *       getStoichiometryTable gives the net change matrix flattened by
+    *   reaction for the device.
+    */
+    public int[] getStoichiometryTable(){
+        int[][] nu = getStoichiometry();
+        int nSpecies = speciesNames.size();
+        int[] table = new int[nu.length*nSpecies];
+        for(int r = 0;r < nu.length;r++){
+            System.arraycopy(nu[r], 0, table, r*nSpecies, nSpecies);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,63 @@
+package Models;
+/*
+ *   @(#)   ToggleSwitchModel
+ */
+
+/**
+*      ToggleSwitchModel builds the two gene toggle switch as a ReactionNetwork:
+*   each protein is made at a rate repressed by the other and decays linearly.
+*   A switch is p2 going above p1initial.
+*
+* <br>
+*
+* @author      James B. Silva <jbsilva @ bu.edu>
+* @since       2012-05
+*/
+public class ToggleSwitchModel {
+
+    /**
+    *       create builds the toggle switch network.
+    *
+    * @param alpha1 - maximum production of p1
+    * @param alpha2 - maximum production of p2
+    * @param tau1 - lifetime of p1
+    * @param tau2 - lifetime of p2
+    * @param n1 - Hill coefficient of the repression of p1 by p2
+    * @param n2 - Hill coefficient of the repression of p2 by p1
+    * @param kappa1 - repression constant of p1 on p2
+    * @param kappa2 - repression constant of p2 on p1
+    * @param p1initial - initial p1, also the switch threshold
+    * @param p2initial - initial p2
+    */
+    public static ReactionNetwork create(float alpha1, float alpha2, float tau1, float tau2,
+            float n1, float n2, float kappa1, float kappa2, int p1initial, int p2initial){
+        ReactionNetwork net = new ReactionNetwork();
+        int p1 = net.addSpecies("p1", p1initial);
+        int p2 = net.addSpecies("p2", p2initial);
+
+        // birth
+        net.addReaction(new Reaction("birth p1", RateLaw.HILL_REPRESSION, alpha1)
+                .product(p1, 1).modifier(p2, kappa2, n1));
+        net.addReaction(new Reaction("birth p2", RateLaw.HILL_REPRESSION, alpha2)
+                .product(p2, 1).modifier(p1, kappa1, n2));
+        // death
+        net.addReaction(new Reaction("death p1", RateLaw.MASS_ACTION, 1.0/tau1).reactant(p1, 1));
+        net.addReaction(new Reaction("death p2", RateLaw.MASS_ACTION, 1.0/tau2).reactant(p2, 1));
+
+        net.setFirstPassage(p2, p1initial);
+        return net;
+    }
+
+    /**
+    *       create builds the toggle switch from the sysparams layout used by
+    *   the simulations: alpha1, alpha2, tau1, tau2, n1, n2, kappa1, kappa2,
+    *   p1initial and optionally p2initial.
+    *
+    * @param sysparams - system parameters
+    */
+    public static ReactionNetwork create(float[] sysparams){
+        int p2initial = (sysparams.length > 9) ? (int)sysparams[9] : 0;
+        return create(sysparams[0], sysparams[1], sysparams[2], sysparams[3], sysparams[4],
+                sysparams[5], sysparams[6], sysparams[7], (int)sysparams[8], p2initial);
+    }
+}